@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Writes the names of all files below META-INF/ of the compiled classes into
+ * META-INF/xbean-finder.index, so an indexed ResourceFinder can list the
+ * resources below META-INF/ of the jar by reading that single file instead of
+ * listing the entries of the jar.  If the classes have no such files, an index
+ * left by an earlier build is deleted.
+ * <p/>
+ * The index only covers the classes directory as it is at process-classes, and
+ * ResourceFinder does not check it against the jar.  Files added while
+ * packaging, such as META-INF/maven/ by the jar plugin or service files merged
+ * by the shade plugin, are not listed, so do not use this goal for jars whose
+ * META-INF/ is changed after this phase.
+ *
+ * @version $Rev$ $Date$
+ * @goal discovery-index
+ * @description Creates the xbean-finder discovery index
+ * @phase process-classes
+ */
+public class DiscoveryIndexMojo extends AbstractMojo {
+
+    /**
+     * Keep in sync with ResourceFinder.DISCOVERY_INDEX.
+     */
+    private static final String INDEX_NAME = "META-INF/xbean-finder.index";
+
+    /**
+     * @parameter expression="${project.build.outputDirectory}"
+     * @required
+     */
+    private File classesDir;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        getLog().debug( "classesDir[" + classesDir + "]" );
+
+        File metaInf = new File(classesDir, "META-INF");
+        List names = new ArrayList();
+        collect(metaInf, "META-INF/", names);
+        File index = new File(classesDir, INDEX_NAME);
+        if (names.isEmpty()) {
+            // an index from an earlier build would still list the deleted resources
+            if (index.exists() && !index.delete()) {
+                throw new MojoExecutionException("Unable to delete stale discovery index " + index);
+            }
+            getLog().debug("No META-INF resources in " + classesDir + "; no discovery index written");
+            return;
+        }
+        Collections.sort(names);
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(index), "UTF-8");
+            try {
+                out.write("# Generated by the maven-xbean-plugin discovery-index goal\n");
+                for (Iterator iterator = names.iterator(); iterator.hasNext();) {
+                    out.write((String) iterator.next());
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write discovery index " + index, e);
+        }
+        getLog().info("Indexed " + names.size() + " META-INF resources in " + index);
+    }
+
+    private void collect(File directory, String path, List names) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            String name = path + file.getName();
+            if (file.isDirectory()) {
+                collect(file, name + "/", names);
+            } else if (isIndexed(name)) {
+                names.add(name);
+            }
+        }
+    }
+
+    private static boolean isIndexed(String name) {
+        if (name.equals(INDEX_NAME) || name.equals("META-INF/MANIFEST.MF") || name.equals("META-INF/INDEX.LIST")) {
+            return false;
+        }
+        // signature files only live directly in META-INF
+        if (name.indexOf('/', "META-INF/".length()) < 0) {
+            String upper = name.toUpperCase();
+            if (upper.endsWith(".SF") || upper.endsWith(".DSA") || upper.endsWith(".RSA")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class DiscoveryIndexMojoTest extends TestCase {
+    private File classesDir;
+    private File index;
+
+    public void testIndex() throws Exception {
+        write("META-INF/services/org.acme.Service");
+        write("META-INF/org/acme/xbean.properties");
+        write("META-INF/MANIFEST.MF");
+        write("META-INF/SIGNER.SF");
+        write("org/acme/Service.class");
+
+        execute();
+        assertEquals(Arrays.asList(new String[] {
+                "# Generated by the maven-xbean-plugin discovery-index goal",
+                "META-INF/org/acme/xbean.properties",
+                "META-INF/services/org.acme.Service"
+        }), readIndex());
+
+        // the index of the previous build is replaced, not listed
+        execute();
+        assertEquals(3, readIndex().size());
+    }
+
+    public void testStaleIndexDeleted() throws Exception {
+        write("META-INF/services/org.acme.Service");
+        execute();
+        assertTrue(index.exists());
+
+        // the last indexed resource is deleted
+        assertTrue(new File(classesDir, "META-INF/services/org.acme.Service").delete());
+        execute();
+        assertFalse(index.exists());
+    }
+
+    public void testNoClasses() throws Exception {
+        execute();
+        assertFalse(index.exists());
+    }
+
+    private void execute() throws Exception {
+        DiscoveryIndexMojo mojo = new DiscoveryIndexMojo();
+        Field field = DiscoveryIndexMojo.class.getDeclaredField("classesDir");
+        field.setAccessible(true);
+        field.set(mojo, classesDir);
+        mojo.execute();
+    }
+
+    private void write(String name) throws IOException {
+        File file = new File(classesDir, name);
+        file.getParentFile().mkdirs();
+        new FileOutputStream(file).close();
+    }
+
+    private List readIndex() throws IOException {
+        List lines = new ArrayList();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        classesDir = File.createTempFile("xbean-discovery-index", "");
+        classesDir.delete();
+        classesDir.mkdirs();
+        index = new File(classesDir, "META-INF/xbean-finder.index");
+    }
+
+    protected void tearDown() throws Exception {
+        delete(classesDir);
+        super.tearDown();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                delete(files[i]);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.benchmark;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.classloader.JarFileClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Class and resource lookups through a {@link JarFileClassLoader} over a generated many-jar class path.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JarFileClassLoaderBenchmark {
+    private static final int LOADED_CLASSES = 100;
+
+    @Param({"10", "150"})
+    public int jarCount;
+
+    @Param({"50"})
+    public int classesPerJar;
+
+    private SyntheticClassPath classPath;
+    private URL[] urls;
+    private String[] classNames;
+    private String firstResource;
+    private String lastResource;
+    private JarFileClassLoader classLoader;
+    private int missCounter;
+
+    @Setup(Level.Trial)
+    public void createClassPath() throws Exception {
+        classPath = new SyntheticClassPath(jarCount, classesPerJar);
+        urls = classPath.getUrls();
+        classNames = classPath.getSpreadClassNames(LOADED_CLASSES);
+        firstResource = SyntheticClassPath.getResourceName(0, 0);
+        lastResource = SyntheticClassPath.getResourceName(jarCount - 1, classesPerJar - 1);
+        classLoader = new JarFileClassLoader("bench", urls, getClass().getClassLoader());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteClassPath() {
+        classLoader.destroy();
+        classPath.delete();
+    }
+
+    /**
+     * Builds a fresh loader and defines classes spread over every jar, which is the cost a deployment pays once.
+     */
+    @Benchmark
+    public void findClass(Blackhole blackhole) throws Exception {
+        JarFileClassLoader loader = new JarFileClassLoader("bench", urls, getClass().getClassLoader());
+        try {
+            for (int i = 0; i < classNames.length; i++) {
+                blackhole.consume(loader.loadClass(classNames[i]));
+            }
+        } finally {
+            loader.destroy();
+        }
+    }
+
+    @Benchmark
+    public URL getResourceFirstJar() {
+        return classLoader.getResource(firstResource);
+    }
+
+    @Benchmark
+    public URL getResourceLastJar() {
+        return classLoader.getResource(lastResource);
+    }
+
+    /**
+     * Every call asks for a different missing name so the missing name cache can not answer it.
+     */
+    @Benchmark
+    public URL getResourceMiss() {
+        return classLoader.getResource("bench/missing/resource" + (missCounter++) + ".txt");
+    }
+}
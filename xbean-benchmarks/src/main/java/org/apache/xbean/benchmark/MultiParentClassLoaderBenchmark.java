@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.benchmark;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.classloader.MultiParentClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Delegation through a deep graph of {@link MultiParentClassLoader}s.  Every level of the graph has
+ * <code>width</code> parents: one continues the chain towards the root and the others are empty siblings
+ * that must be asked first, the way a module with several library parents is usually wired.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiParentClassLoaderBenchmark {
+    private static final URL[] NO_URLS = new URL[0];
+
+    @Param({"1", "8", "32"})
+    public int depth;
+
+    @Param({"1", "4"})
+    public int width;
+
+    @Param({"0", "200"})
+    public int hiddenPrefixes;
+
+    private MultiParentClassLoader leaf;
+    private MultiParentClassLoader cachingLeaf;
+    private int missCounter;
+
+    @Setup(Level.Trial)
+    public void createGraph() throws Exception {
+        ClassLoader chain = getClass().getClassLoader();
+        for (int level = 0; level < depth; level++) {
+            ClassLoader[] parents = new ClassLoader[width];
+            for (int i = 0; i < width - 1; i++) {
+                parents[i] = new MultiParentClassLoader("sibling-" + level + "-" + i, NO_URLS, new ClassLoader[0]);
+            }
+            parents[width - 1] = chain;
+            chain = new MultiParentClassLoader("level-" + level, NO_URLS, parents, false, createHiddenPrefixes(level), new String[0]);
+        }
+        leaf = (MultiParentClassLoader) chain;
+
+        // the missing class cache is opt-in; only this loader uses it, so the other benchmarks walk the graph
+        cachingLeaf = new MultiParentClassLoader("caching-leaf", NO_URLS, new ClassLoader[] {leaf});
+        cachingLeaf.setMissingCacheSize(16);
+
+        // fail fast if the graph is wired wrong
+        leaf.loadClass(MultiParentClassLoaderBenchmark.class.getName());
+    }
+
+    private String[] createHiddenPrefixes(int level) {
+        String[] prefixes = new String[hiddenPrefixes];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = "org.example.level" + level + ".hidden" + i + ".";
+        }
+        return prefixes;
+    }
+
+    /**
+     * A JDK class, found only after asking every loader on the way to the root.
+     */
+    @Benchmark
+    public Class loadSystemClass() throws Exception {
+        return leaf.loadClass("java.util.ArrayList");
+    }
+
+    /**
+     * An application class visible through the root of the graph.
+     */
+    @Benchmark
+    public Class loadApplicationClass() throws Exception {
+        return leaf.loadClass(MultiParentClassLoaderBenchmark.class.getName());
+    }
+
+    /**
+     * The same missing class over and over, through a loader with the missing class cache enabled; answered by the
+     * cache after the first walk.
+     */
+    @Benchmark
+    public boolean loadMissingClassCached() {
+        try {
+            cachingLeaf.loadClass("org.example.Missing");
+            return true;
+        } catch (ClassNotFoundException expected) {
+            return false;
+        }
+    }
+
+    /**
+     * A new missing class on every call, so the whole graph is walked each time.
+     */
+    @Benchmark
+    public boolean loadMissingClassUncached() {
+        try {
+            leaf.loadClass("org.example.Missing" + (missCounter++));
+            return true;
+        } catch (ClassNotFoundException expected) {
+            return false;
+        }
+    }
+}
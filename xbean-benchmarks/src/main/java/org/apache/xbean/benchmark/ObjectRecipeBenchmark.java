@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.benchmark;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.recipe.ObjectRecipe;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ObjectRecipe#create} through setters, a constructor and a factory method; all properties are strings
+ * that must be converted, like they are when read from a configuration file.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectRecipeBenchmark {
+    private ClassLoader classLoader;
+    private ObjectRecipe setterRecipe;
+    private ObjectRecipe constructorRecipe;
+    private ObjectRecipe factoryRecipe;
+
+    @Setup(Level.Trial)
+    public void createRecipes() {
+        classLoader = Person.class.getClassLoader();
+
+        setterRecipe = setProperties(new ObjectRecipe(Person.class));
+        constructorRecipe = setProperties(new ObjectRecipe(Person.class,
+                new String[]{"name", "age", "homePage"},
+                new Class[]{String.class, Integer.TYPE, URL.class}));
+        factoryRecipe = setProperties(new ObjectRecipe(Person.class, "newInstance"));
+    }
+
+    private static ObjectRecipe setProperties(ObjectRecipe recipe) {
+        recipe.setProperty("name", "Joe");
+        recipe.setProperty("age", "21");
+        recipe.setProperty("homePage", "http://www.acme.org");
+        return recipe;
+    }
+
+    @Benchmark
+    public Object createWithSetters() throws Exception {
+        return setterRecipe.create(classLoader);
+    }
+
+    @Benchmark
+    public Object createWithConstructor() throws Exception {
+        return constructorRecipe.create(classLoader);
+    }
+
+    @Benchmark
+    public Object createWithFactoryMethod() throws Exception {
+        return factoryRecipe.create(classLoader);
+    }
+}
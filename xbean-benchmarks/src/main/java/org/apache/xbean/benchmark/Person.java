@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.benchmark;
+
+import java.net.URL;
+
+/**
+ * Simple bean built by the recipe benchmarks.
+ *
+ * @version $Rev$ $Date$
+ */
+public class Person {
+    private String name;
+    private int age;
+    private URL homePage;
+
+    public Person() {
+    }
+
+    public Person(String name, int age, URL homePage) {
+        this.name = name;
+        this.age = age;
+        this.homePage = homePage;
+    }
+
+    public static Person newInstance() {
+        return new Person();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+
+    public URL getHomePage() {
+        return homePage;
+    }
+
+    public void setHomePage(URL homePage) {
+        this.homePage = homePage;
+    }
+}
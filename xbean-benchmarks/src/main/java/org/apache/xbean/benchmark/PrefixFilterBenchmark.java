@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.benchmark;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.classloader.MultiParentClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The hidden and non-overridable filters of a {@link MultiParentClassLoader}, measured through resource lookups.
+ * The loader and its only parent have no urls, so a lookup costs little more than the filter checks, and the time
+ * should stay flat as the number of prefixes grows.  A <code>prefixCount</code> of zero is the unfiltered baseline.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefixFilterBenchmark {
+    private static final URL[] NO_URLS = new URL[0];
+
+    @Param({"0", "5", "50", "500"})
+    public int prefixCount;
+
+    private MultiParentClassLoader loader;
+    private String matching;
+    private String notMatching;
+
+    @Setup(Level.Trial)
+    public void createLoader() {
+        String[] hiddenClasses = new String[prefixCount];
+        String[] nonOverridableClasses = new String[prefixCount];
+        for (int i = 0; i < prefixCount; i++) {
+            hiddenClasses[i] = "org.example.hidden" + i + ".";
+            nonOverridableClasses[i] = "org.example.shared" + i + ".";
+        }
+
+        // inverse loading, so every lookup checks both the non-overridable and the hidden filter
+        ClassLoader parent = new MultiParentClassLoader("parent", NO_URLS, new ClassLoader[0]);
+        loader = new MultiParentClassLoader("filtered", NO_URLS, new ClassLoader[] {parent}, true, hiddenClasses, nonOverridableClasses);
+
+        // both names share a long prefix with the filters, so neither is rejected on the first character
+        matching = "org/example/hidden" + Math.max(prefixCount - 1, 0) + "/impl/service.properties";
+        notMatching = "org/example/application/impl/service.properties";
+    }
+
+    /**
+     * A resource under the last hidden prefix.
+     */
+    @Benchmark
+    public URL getMatchingResource() {
+        return loader.getResource(matching);
+    }
+
+    /**
+     * A resource that matches none of the prefixes.
+     */
+    @Benchmark
+    public URL getNotMatchingResource() {
+        return loader.getResource(notMatching);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.propertyeditor.PropertyEditors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link PropertyEditors#getValue} for a mix of converter backed and collection types, looked up by name the way
+ * the recipes and the kernel do it.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyEditorsBenchmark {
+    @Param({"int:42", "java.lang.Integer:42", "java.net.URL:http://www.acme.org", "java.io.File:/tmp/xbean", "java.util.List:a,b,c"})
+    public String conversion;
+
+    private String type;
+    private String value;
+    private ClassLoader classLoader;
+
+    @Setup(Level.Trial)
+    public void parseConversion() {
+        int colon = conversion.indexOf(':');
+        type = conversion.substring(0, colon);
+        value = conversion.substring(colon + 1);
+        classLoader = getClass().getClassLoader();
+    }
+
+    @Benchmark
+    public Object getValue() {
+        return PropertyEditors.getValue(type, value, classLoader);
+    }
+}
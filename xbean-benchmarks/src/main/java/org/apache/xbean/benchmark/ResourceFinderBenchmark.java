@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.benchmark;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xbean.classloader.JarFileClassLoader;
+import org.apache.xbean.finder.ResourceFinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ResourceFinder#mapAvailableImplementations} over a generated class path in which every jar declares
+ * implementations of {@link Serializable}.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceFinderBenchmark {
+    @Param({"10", "150"})
+    public int jarCount;
+
+    @Param({"10"})
+    public int classesPerJar;
+
+    private SyntheticClassPath classPath;
+    private JarFileClassLoader classLoader;
+    private ResourceFinder resourceFinder;
+
+    @Setup(Level.Trial)
+    public void createClassPath() throws Exception {
+        classPath = new SyntheticClassPath(jarCount, classesPerJar);
+        classLoader = new JarFileClassLoader("bench", classPath.getUrls(), getClass().getClassLoader());
+        resourceFinder = new ResourceFinder(SyntheticClassPath.SERVICE_PATH, classLoader);
+
+        Map<String, Class> implementations = resourceFinder.mapAvailableImplementations(Serializable.class);
+        if (implementations.size() != jarCount * classesPerJar) {
+            throw new IllegalStateException("Expected " + (jarCount * classesPerJar) + " implementations but found " + implementations.size());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteClassPath() {
+        classLoader.destroy();
+        classPath.delete();
+    }
+
+    @Benchmark
+    public Map<String, Class> mapAvailableImplementations() throws Exception {
+        return resourceFinder.mapAvailableImplementations(Serializable.class);
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Builds a throw away class path of generated jars for the benchmarks.  Jar <code>j</code> contains the classes
+ * <code>bench.jarJ.ClassC</code>, which all implement {@link java.io.Serializable}, a plain resource
+ * <code>bench/jarJ/resourceC.txt</code> for each class and a <code>META-INF/bench/java.io.Serializable/implJ_C</code>
+ * entry naming the class as an implementation for {@link org.apache.xbean.finder.ResourceFinder}.
+ *
+ * @version $Rev$ $Date$
+ */
+public class SyntheticClassPath {
+    public static final String SERVICE_PATH = "META-INF/bench/";
+
+    private final File directory;
+    private final URL[] urls;
+    private final int jarCount;
+    private final int classesPerJar;
+
+    public SyntheticClassPath(int jarCount, int classesPerJar) throws IOException {
+        this.jarCount = jarCount;
+        this.classesPerJar = classesPerJar;
+
+        directory = File.createTempFile("xbean-bench", "");
+        directory.delete();
+        if (!directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        urls = new URL[jarCount];
+        for (int jar = 0; jar < jarCount; jar++) {
+            File file = new File(directory, "bench" + jar + ".jar");
+            writeJar(file, jar);
+            urls[jar] = file.toURI().toURL();
+        }
+    }
+
+    public URL[] getUrls() {
+        return (URL[]) urls.clone();
+    }
+
+    public int getJarCount() {
+        return jarCount;
+    }
+
+    public int getClassesPerJar() {
+        return classesPerJar;
+    }
+
+    public static String getClassName(int jar, int clazz) {
+        return "bench.jar" + jar + ".Class" + clazz;
+    }
+
+    public static String getResourceName(int jar, int clazz) {
+        return "bench/jar" + jar + "/resource" + clazz + ".txt";
+    }
+
+    public void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private void writeJar(File file, int jar) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            // explicit directory entries, so directory lookups like ResourceFinder.getResourcesMap work
+            String[] directories = {"META-INF/", SERVICE_PATH, SERVICE_PATH + "java.io.Serializable/", "bench/", "bench/jar" + jar + "/"};
+            for (int i = 0; i < directories.length; i++) {
+                out.putNextEntry(new JarEntry(directories[i]));
+                out.closeEntry();
+            }
+
+            for (int clazz = 0; clazz < classesPerJar; clazz++) {
+                String className = getClassName(jar, clazz);
+
+                out.putNextEntry(new JarEntry(className.replace('.', '/') + ".class"));
+                out.write(createClassBytes(className.replace('.', '/'), "java/io/Serializable"));
+                out.closeEntry();
+
+                out.putNextEntry(new JarEntry(getResourceName(jar, clazz)));
+                out.write(className.getBytes("UTF-8"));
+                out.closeEntry();
+
+                out.putNextEntry(new JarEntry(SERVICE_PATH + "java.io.Serializable/impl" + jar + "_" + clazz));
+                out.write(className.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates the smallest legal class file for a public class extending Object and implementing one interface.
+     * The class has no members, which is all the loaders under test care about.
+     */
+    static byte[] createClassBytes(String internalName, String interfaceName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);           // minor version
+        out.writeShort(49);          // major version: 1.5
+
+        // constant pool
+        out.writeShort(7);
+        out.writeByte(1);            // #1 Utf8 this class
+        out.writeUTF(internalName);
+        out.writeByte(7);            // #2 Class #1
+        out.writeShort(1);
+        out.writeByte(1);            // #3 Utf8 super class
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);            // #4 Class #3
+        out.writeShort(3);
+        out.writeByte(1);            // #5 Utf8 interface
+        out.writeUTF(interfaceName);
+        out.writeByte(7);            // #6 Class #5
+        out.writeShort(5);
+
+        out.writeShort(0x0021);      // ACC_PUBLIC | ACC_SUPER
+        out.writeShort(2);           // this class
+        out.writeShort(4);           // super class
+        out.writeShort(1);           // interfaces
+        out.writeShort(6);
+        out.writeShort(0);           // fields
+        out.writeShort(0);           // methods
+        out.writeShort(0);           // attributes
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Picks <code>count</code> class names spread evenly over all jars, so lookups exercise the whole class path.
+     */
+    public String[] getSpreadClassNames(int count) {
+        List<String> names = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            int jar = (int) ((long) i * jarCount / count);
+            int clazz = i % classesPerJar;
+            names.add(getClassName(jar, clazz));
+        }
+        return names.toArray(new String[names.size()]);
+    }
+}
@@ -29,7 +29,8 @@ public abstract class AbstractResourceHandle implements ResourceHandle {
     public byte[] getBytes() throws IOException {
         InputStream in = getInputStream();
         try {
-            byte[] bytes = IoUtil.getBytes(in);
+            // when the length is known, read directly into an exactly sized array
+            byte[] bytes = IoUtil.getBytes(in, getContentLength());
             return bytes;
         } finally {
             IoUtil.close(in);
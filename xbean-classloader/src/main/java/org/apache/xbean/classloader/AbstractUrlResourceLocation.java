@@ -17,6 +17,7 @@
 package org.apache.xbean.classloader;
 
 import java.net.URL;
+import java.util.Set;
 
 /**
  * @version $Rev$ $Date$
@@ -32,6 +33,30 @@ public abstract class AbstractUrlResourceLocation implements ResourceLocation {
         return codeSource;
     }
 
+    /**
+     * Gets the url of the resource.  Subclasses override this to create the url without a resource handle.
+     * @param resourceName the resource name
+     * @return the url of the resource, or null if this location does not contain the resource
+     */
+    public URL getResourceUrl(String resourceName) {
+        ResourceHandle resourceHandle = getResourceHandle(resourceName);
+        if (resourceHandle == null) {
+            return null;
+        }
+        return resourceHandle.getUrl();
+    }
+
+    /**
+     * Gets the names of the packages (directories) that contain at least one resource in this location.  A package name
+     * is the "/"-separated path of the directory without a trailing slash, and resources in the root directory are in
+     * the package "".  This is used to build an index of the class path, so a lookup only probes locations that can
+     * contain the resource.
+     * @return the package names, or null if this location does not support indexing and must always be searched
+     */
+    public Set getPackageNames() {
+        return null;
+    }
+
     public void close() {
     }
 
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * A {@link ClassLoaderListener} which records the names of the classes defined by a class loader, in the order they
+ * were defined.  The recorded list is saved at the end of a startup and replayed by a {@link ClassPreloader} on the
+ * next startup.  The recorder can forward all events to another listener, such as a {@link ClassLoaderStatistics}.
+ * <p/>
+ * The class list file contains one class name per line; blank lines and lines starting with '#' are ignored.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ClassDefinitionRecorder implements ClassLoaderListener {
+    private final ClassLoaderListener next;
+    private final LinkedHashSet classNames = new LinkedHashSet();
+
+    public ClassDefinitionRecorder() {
+        this(null);
+    }
+
+    /**
+     * Creates a recorder which forwards all events to another listener.
+     * @param next the listener receiving all events, or null
+     */
+    public ClassDefinitionRecorder(ClassLoaderListener next) {
+        this.next = next;
+    }
+
+    public void localClassLookup(String className, boolean found, long nanos) {
+        if (next != null) {
+            next.localClassLookup(className, found, nanos);
+        }
+    }
+
+    public void parentClassLookup(ClassLoader parent, String className, boolean found, long nanos) {
+        if (next != null) {
+            next.parentClassLookup(parent, className, found, nanos);
+        }
+    }
+
+    public void classDefined(String className, URL codeSource, int size) {
+        synchronized (classNames) {
+            classNames.add(className);
+        }
+        if (next != null) {
+            next.classDefined(className, codeSource, size);
+        }
+    }
+
+    public void resourceLocationLookup(URL codeSource, String resourceName, boolean found) {
+        if (next != null) {
+            next.resourceLocationLookup(codeSource, resourceName, found);
+        }
+    }
+
+    /**
+     * Gets the names of the classes defined so far, in definition order.
+     * @return a new list of class names
+     */
+    public List getClassNames() {
+        synchronized (classNames) {
+            return new ArrayList(classNames);
+        }
+    }
+
+    /**
+     * Forgets all recorded class names.
+     */
+    public void clear() {
+        synchronized (classNames) {
+            classNames.clear();
+        }
+    }
+
+    /**
+     * Writes the recorded class names to a class list file.  The list is written to a temporary file first, so a
+     * concurrent reader sees either the old or the new list.
+     * @param file the class list file
+     * @throws IOException if the file can not be written
+     */
+    public void save(File file) throws IOException {
+        List names = getClassNames();
+
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            for (Iterator iterator = names.iterator(); iterator.hasNext();) {
+                out.println((String) iterator.next());
+            }
+            if (out.checkError()) {
+                throw new IOException("Could not write class list: " + tempFile);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            // windows will not rename over an existing file
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Could not replace class list: " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads a class list file written by {@link #save(File)}.
+     * @param file the class list file
+     * @return the class names in the file, in order
+     * @throws IOException if the file can not be read
+     */
+    public static List load(File file) throws IOException {
+        List names = new ArrayList();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    names.add(line);
+                }
+            }
+        } finally {
+            IoUtil.close(in);
+        }
+        return names;
+    }
+}
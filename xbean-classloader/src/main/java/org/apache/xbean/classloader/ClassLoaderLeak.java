@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+/**
+ * A destroyed class loader which has survived garbage collection, as reported by a {@link ClassLoaderLeakDetector}.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class ClassLoaderLeak {
+    private final String name;
+    private final String className;
+    private final long classesDefined;
+    private final long bytesDefined;
+    private final long destroyTime;
+    private final long garbageCollections;
+
+    ClassLoaderLeak(String name, String className, long classesDefined, long bytesDefined, long destroyTime, long garbageCollections) {
+        this.name = name;
+        this.className = className;
+        this.classesDefined = classesDefined;
+        this.bytesDefined = bytesDefined;
+        this.destroyTime = destroyTime;
+        this.garbageCollections = garbageCollections;
+    }
+
+    /**
+     * Gets the name of the class loader.
+     * @return the name of the class loader
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the name of the class of the class loader.
+     * @return the name of the class loader class
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the number of classes the class loader defined.  These classes are retained along with the class loader.
+     * @return the number of classes defined
+     */
+    public long getClassesDefined() {
+        return classesDefined;
+    }
+
+    /**
+     * Gets the total size of the class files the class loader defined, which is an estimate of the memory retained by
+     * the leaked classes.  Only the class files defined by a {@link JarFileClassLoader} are counted; the classes of
+     * other class loaders are counted in {@link #getClassesDefined()} with a size of zero, so for those this is zero.
+     * @return the number of bytes defined
+     */
+    public long getBytesDefined() {
+        return bytesDefined;
+    }
+
+    /**
+     * Gets the time the class loader was destroyed.
+     * @return the destroy time in milliseconds since the epoch
+     */
+    public long getDestroyTime() {
+        return destroyTime;
+    }
+
+    /**
+     * Gets the number of garbage collections the class loader has survived since it was destroyed.
+     * @return the number of garbage collections
+     */
+    public long getGarbageCollections() {
+        return garbageCollections;
+    }
+
+    public String toString() {
+        return "[ClassLoaderLeak: name=" + name +
+                " class=" + className +
+                " classesDefined=" + classesDefined +
+                " bytesDefined=" + bytesDefined +
+                " garbageCollections=" + garbageCollections +
+                "]";
+    }
+}
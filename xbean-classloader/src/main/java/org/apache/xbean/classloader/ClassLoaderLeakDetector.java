@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Tracks class loaders with phantom references and reports the destroyed class loaders that are not garbage
+ * collected.  Every {@link NamedClassLoader} registers itself with the detector returned by
+ * {@link ClassLoaderUtil#getLeakDetector()}, and a class loader that survives more than
+ * {@link #getGarbageCollectionThreshold()} garbage collections after it was destroyed is reported as a leak.  A leaked
+ * class loader retains all of the classes it defined, which is why PermGen or Metaspace usage grows on each redeploy.
+ * <p/>
+ * Garbage collections are detected with a weakly referenced canary object, which is checked once a second while any
+ * class loader is tracked, and whenever the leak information is requested.  Several collections between two checks
+ * are counted as one.  The same background check drops the class loaders that have been collected, and clears their
+ * references, since a phantom reference does not release its referent on its own on older virtual machines.
+ * <p/>
+ * The leaked bytes are the sizes of the class files defined by {@link JarFileClassLoader}s.  A
+ * {@link MultiParentClassLoader} defines its classes through URLClassLoader, which does not expose the class file, so
+ * its classes are counted with a size of zero.  This class is a standard MBean, so it can be registered with any
+ * MBeanServer, for example under the name <code>xbean:type=ClassLoaderLeakDetector</code>.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ClassLoaderLeakDetector implements ClassLoaderLeakDetectorMBean {
+    /**
+     * The default number of garbage collections a destroyed class loader may survive before it is reported.
+     */
+    public static final int DEFAULT_GARBAGE_COLLECTION_THRESHOLD = 3;
+
+    /**
+     * Milliseconds between two checks for a garbage collection while a destroyed class loader is not collected.
+     */
+    static final long CHECK_INTERVAL = 1000;
+
+    private final ReferenceQueue queue = new ReferenceQueue();
+    private final Set trackedClassLoaders = new HashSet();
+    private WeakReference canary = new WeakReference(new Object());
+    private long garbageCollections;
+    private int garbageCollectionThreshold = DEFAULT_GARBAGE_COLLECTION_THRESHOLD;
+    private Timer timer;
+
+    /**
+     * Starts tracking a class loader.
+     * @param classLoader the class loader
+     * @param name the name of the class loader
+     * @return the tracking information, which the class loader uses to count its classes and to report its destruction
+     */
+    synchronized TrackedClassLoader register(ClassLoader classLoader, String name) {
+        expungeCollected();
+        TrackedClassLoader trackedClassLoader = new TrackedClassLoader(this, classLoader, name, queue);
+        trackedClassLoaders.add(trackedClassLoader);
+        if (timer == null) {
+            timer = new Timer(true);
+            timer.schedule(new CheckTask(), CHECK_INTERVAL, CHECK_INTERVAL);
+        }
+        return trackedClassLoader;
+    }
+
+    synchronized void destroyed(TrackedClassLoader trackedClassLoader) {
+        checkGarbageCollection();
+        trackedClassLoader.setDestroyed(garbageCollections);
+    }
+
+    /**
+     * Checks for collected class loaders and for a garbage collection since the last check.
+     */
+    public synchronized void check() {
+        checkGarbageCollection();
+        expungeCollected();
+        if (timer != null && trackedClassLoaders.isEmpty()) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Gets the destroyed class loaders which have survived more garbage collections than the threshold.
+     * @return the leaked class loaders
+     */
+    public synchronized ClassLoaderLeak[] getClassLoaderLeaks() {
+        check();
+        List leaks = new ArrayList();
+        for (Iterator iterator = trackedClassLoaders.iterator(); iterator.hasNext();) {
+            TrackedClassLoader trackedClassLoader = (TrackedClassLoader) iterator.next();
+            if (isLeaked(trackedClassLoader)) {
+                leaks.add(trackedClassLoader.toLeak(garbageCollections));
+            }
+        }
+        return (ClassLoaderLeak[]) leaks.toArray(new ClassLoaderLeak[leaks.size()]);
+    }
+
+    public String[] getLeaks() {
+        ClassLoaderLeak[] leaks = getClassLoaderLeaks();
+        String[] descriptions = new String[leaks.length];
+        for (int i = 0; i < leaks.length; i++) {
+            descriptions[i] = leaks[i].toString();
+        }
+        return descriptions;
+    }
+
+    public synchronized int getTrackedClassLoaders() {
+        expungeCollected();
+        return trackedClassLoaders.size();
+    }
+
+    public synchronized int getDestroyedClassLoaders() {
+        expungeCollected();
+        int count = 0;
+        for (Iterator iterator = trackedClassLoaders.iterator(); iterator.hasNext();) {
+            if (((TrackedClassLoader) iterator.next()).isDestroyed()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getLeakedClassLoaders() {
+        return getClassLoaderLeaks().length;
+    }
+
+    public long getLeakedClasses() {
+        ClassLoaderLeak[] leaks = getClassLoaderLeaks();
+        long count = 0;
+        for (int i = 0; i < leaks.length; i++) {
+            count += leaks[i].getClassesDefined();
+        }
+        return count;
+    }
+
+    public long getLeakedBytes() {
+        ClassLoaderLeak[] leaks = getClassLoaderLeaks();
+        long count = 0;
+        for (int i = 0; i < leaks.length; i++) {
+            count += leaks[i].getBytesDefined();
+        }
+        return count;
+    }
+
+    public synchronized long getGarbageCollections() {
+        checkGarbageCollection();
+        return garbageCollections;
+    }
+
+    public synchronized int getGarbageCollectionThreshold() {
+        return garbageCollectionThreshold;
+    }
+
+    public synchronized void setGarbageCollectionThreshold(int garbageCollectionThreshold) {
+        if (garbageCollectionThreshold < 0) {
+            throw new IllegalArgumentException("garbageCollectionThreshold is negative: " + garbageCollectionThreshold);
+        }
+        this.garbageCollectionThreshold = garbageCollectionThreshold;
+    }
+
+    private boolean isLeaked(TrackedClassLoader trackedClassLoader) {
+        return trackedClassLoader.isDestroyed() &&
+                trackedClassLoader.getGarbageCollectionsSurvived(garbageCollections) > garbageCollectionThreshold;
+    }
+
+    private void checkGarbageCollection() {
+        if (canary.get() == null) {
+            garbageCollections++;
+            canary = new WeakReference(new Object());
+        }
+    }
+
+    private void expungeCollected() {
+        for (Reference reference = queue.poll(); reference != null; reference = queue.poll()) {
+            trackedClassLoaders.remove(reference);
+            reference.clear();
+        }
+    }
+
+    private class CheckTask extends TimerTask {
+        public void run() {
+            // the timer thread inherited the context class loader of whichever thread created it; don't pin it
+            Thread.currentThread().setContextClassLoader(null);
+            check();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.net.URL;
+
+/**
+ * Receives class loading events from a {@link MultiParentClassLoader} or {@link JarFileClassLoader}.  A listener is
+ * installed on a single class loader with {@link MultiParentClassLoader#setClassLoaderListener}; when no listener is
+ * installed the class loader does not gather any timing information.
+ * <p/>
+ * Listeners are called on the thread loading the class, possibly from many threads at once, and must not load
+ * classes through the class loader that is reporting the event.
+ *
+ * @version $Rev$ $Date$
+ */
+public interface ClassLoaderListener {
+    /**
+     * Called after the class loader searched its own class path for a class.
+     * @param className the name of the class
+     * @param found true if the class was found and defined
+     * @param nanos the time spent in findClass, in nanoseconds
+     */
+    void localClassLookup(String className, boolean found, long nanos);
+
+    /**
+     * Called after the class loader delegated the loading of a class to one of its parents.
+     * @param parent the parent class loader
+     * @param className the name of the class
+     * @param found true if the parent returned the class
+     * @param nanos the time spent in the parent loadClass, in nanoseconds
+     */
+    void parentClassLookup(ClassLoader parent, String className, boolean found, long nanos);
+
+    /**
+     * Called when a class is defined from the class path.
+     * @param className the name of the class
+     * @param codeSource the class path entry containing the class
+     * @param size the number of bytes read from the class file
+     */
+    void classDefined(String className, URL codeSource, int size);
+
+    /**
+     * Called each time a class path entry is checked for a resource or class file.
+     * @param codeSource the class path entry
+     * @param resourceName the name of the resource
+     * @param found true if the entry contains the resource
+     */
+    void resourceLocationLookup(URL codeSource, String resourceName, boolean found);
+}
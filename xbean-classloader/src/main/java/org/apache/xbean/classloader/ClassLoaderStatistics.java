@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link ClassLoaderListener} which keeps counters and latency histograms for a single class loader.  This class is
+ * a standard MBean, so it can be registered with any MBeanServer, for example under the name
+ * <code>xbean:type=ClassLoaderStatistics,name=&lt;class loader name&gt;</code>.
+ * <p/>
+ * The per class path entry hit and miss counts show badly ordered class paths: an entry near the front with many
+ * misses and few hits is probed for classes it never contains.
+ * <p/>
+ * The counters are split into stripes chosen by the calling thread, so threads loading classes in parallel rarely
+ * contend for the same lock.  The getters add up the stripes.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ClassLoaderStatistics implements ClassLoaderListener, ClassLoaderStatisticsMBean {
+    // upper bounds of the latency buckets in nanoseconds; the last bucket counts everything slower
+    private static final long[] BUCKET_LIMITS = new long[] {1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L};
+    private static final String[] BUCKET_NAMES = new String[] {"<1us", "<10us", "<100us", "<1ms", "<10ms", "<100ms", ">=100ms"};
+
+    // the counter fields added up by sum()
+    private static final int CLASSES_DEFINED = 0;
+    private static final int BYTES_DEFINED = 1;
+    private static final int LOCAL_LOOKUPS = 2;
+    private static final int LOCAL_LOOKUP_MISSES = 3;
+    private static final int LOCAL_LOOKUP_NANOS = 4;
+    private static final int PARENT_DELEGATIONS = 5;
+    private static final int PARENT_DELEGATION_MISSES = 6;
+    private static final int PARENT_LOOKUP_NANOS = 7;
+
+    // must be a power of two
+    private static final int STRIPE_COUNT = 16;
+
+    private final Counters[] stripes = new Counters[STRIPE_COUNT];
+
+    public ClassLoaderStatistics() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Counters();
+        }
+    }
+
+    public void localClassLookup(String className, boolean found, long nanos) {
+        Counters counters = getStripe();
+        synchronized (counters) {
+            counters.localLookups++;
+            if (!found) {
+                counters.localLookupMisses++;
+            }
+            counters.localLookupNanos += nanos;
+            counters.localLookupHistogram[getBucket(nanos)]++;
+        }
+    }
+
+    public void parentClassLookup(ClassLoader parent, String className, boolean found, long nanos) {
+        Counters counters = getStripe();
+        synchronized (counters) {
+            counters.parentDelegations++;
+            if (!found) {
+                counters.parentDelegationMisses++;
+            }
+            counters.parentLookupNanos += nanos;
+            counters.parentLookupHistogram[getBucket(nanos)]++;
+        }
+    }
+
+    public void classDefined(String className, URL codeSource, int size) {
+        Counters counters = getStripe();
+        synchronized (counters) {
+            counters.classesDefined++;
+            counters.bytesDefined += size;
+        }
+    }
+
+    public void resourceLocationLookup(URL codeSource, String resourceName, boolean found) {
+        String key = String.valueOf(codeSource);
+        Counters counters = getStripe();
+        synchronized (counters) {
+            long[] counts = (long[]) counters.locationCounts.get(key);
+            if (counts == null) {
+                counts = new long[2];
+                counters.locationCounts.put(key, counts);
+            }
+            counts[found ? 0 : 1]++;
+        }
+    }
+
+    public long getClassesDefined() {
+        return sum(CLASSES_DEFINED);
+    }
+
+    public long getBytesDefined() {
+        return sum(BYTES_DEFINED);
+    }
+
+    public long getLocalLookups() {
+        return sum(LOCAL_LOOKUPS);
+    }
+
+    public long getLocalLookupMisses() {
+        return sum(LOCAL_LOOKUP_MISSES);
+    }
+
+    public long getLocalLookupTimeMillis() {
+        return sum(LOCAL_LOOKUP_NANOS) / 1000000L;
+    }
+
+    public long getParentDelegations() {
+        return sum(PARENT_DELEGATIONS);
+    }
+
+    public long getParentDelegationMisses() {
+        return sum(PARENT_DELEGATION_MISSES);
+    }
+
+    public long getParentLookupTimeMillis() {
+        return sum(PARENT_LOOKUP_NANOS) / 1000000L;
+    }
+
+    public String[] getLatencyBuckets() {
+        String[] names = new String[BUCKET_NAMES.length];
+        System.arraycopy(BUCKET_NAMES, 0, names, 0, names.length);
+        return names;
+    }
+
+    public long[] getLocalLookupLatencyHistogram() {
+        long[] histogram = new long[BUCKET_NAMES.length];
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                addTo(histogram, stripes[i].localLookupHistogram);
+            }
+        }
+        return histogram;
+    }
+
+    public long[] getParentLookupLatencyHistogram() {
+        long[] histogram = new long[BUCKET_NAMES.length];
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                addTo(histogram, stripes[i].parentLookupHistogram);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets the number of lookups that found a resource or class file in the specified class path entry.
+     * @param codeSource the class path entry
+     * @return the number of hits
+     */
+    public long getResourceLocationHits(URL codeSource) {
+        long[] counts = (long[]) getLocationCounts().get(String.valueOf(codeSource));
+        return counts == null ? 0 : counts[0];
+    }
+
+    /**
+     * Gets the number of lookups that checked the specified class path entry without finding the resource.
+     * @param codeSource the class path entry
+     * @return the number of misses
+     */
+    public long getResourceLocationMisses(URL codeSource) {
+        long[] counts = (long[]) getLocationCounts().get(String.valueOf(codeSource));
+        return counts == null ? 0 : counts[1];
+    }
+
+    public String[] getResourceLocationStatistics() {
+        Map locationCounts = getLocationCounts();
+        String[] statistics = new String[locationCounts.size()];
+        int i = 0;
+        for (Iterator iterator = locationCounts.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            long[] counts = (long[]) entry.getValue();
+            statistics[i++] = entry.getKey() + " hits=" + counts[0] + " misses=" + counts[1];
+        }
+        return statistics;
+    }
+
+    public void reset() {
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                stripes[i].reset();
+            }
+        }
+    }
+
+    /**
+     * Adds up one counter field of all stripes.
+     * @param field one of the counter field constants
+     * @return the total of the field
+     */
+    private long sum(int field) {
+        long total = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                total += stripes[i].get(field);
+            }
+        }
+        return total;
+    }
+
+    private Counters getStripe() {
+        return stripes[System.identityHashCode(Thread.currentThread()) & (STRIPE_COUNT - 1)];
+    }
+
+    /**
+     * Adds up the hit and miss counts of all stripes.
+     * @return code source url string -> long[] {hits, misses}, roughly in the order the entries were first used
+     */
+    private Map getLocationCounts() {
+        Map locationCounts = new LinkedHashMap();
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                for (Iterator iterator = stripes[i].locationCounts.entrySet().iterator(); iterator.hasNext();) {
+                    Map.Entry entry = (Map.Entry) iterator.next();
+                    long[] counts = (long[]) locationCounts.get(entry.getKey());
+                    if (counts == null) {
+                        counts = new long[2];
+                        locationCounts.put(entry.getKey(), counts);
+                    }
+                    addTo(counts, (long[]) entry.getValue());
+                }
+            }
+        }
+        return locationCounts;
+    }
+
+    private static void addTo(long[] total, long[] values) {
+        for (int i = 0; i < total.length; i++) {
+            total[i] += values[i];
+        }
+    }
+
+    private static int getBucket(long nanos) {
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (nanos < BUCKET_LIMITS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    /**
+     * The counters of one stripe; guarded by the monitor of the instance.
+     */
+    private static final class Counters {
+        private long classesDefined;
+        private long bytesDefined;
+        private long localLookups;
+        private long localLookupMisses;
+        private long localLookupNanos;
+        private long parentDelegations;
+        private long parentDelegationMisses;
+        private long parentLookupNanos;
+        private final long[] localLookupHistogram = new long[BUCKET_NAMES.length];
+        private final long[] parentLookupHistogram = new long[BUCKET_NAMES.length];
+
+        // code source url string -> long[] {hits, misses}, in the order the entries were first used
+        private final Map locationCounts = new LinkedHashMap();
+
+        private long get(int field) {
+            switch (field) {
+                case CLASSES_DEFINED: return classesDefined;
+                case BYTES_DEFINED: return bytesDefined;
+                case LOCAL_LOOKUPS: return localLookups;
+                case LOCAL_LOOKUP_MISSES: return localLookupMisses;
+                case LOCAL_LOOKUP_NANOS: return localLookupNanos;
+                case PARENT_DELEGATIONS: return parentDelegations;
+                case PARENT_DELEGATION_MISSES: return parentDelegationMisses;
+                case PARENT_LOOKUP_NANOS: return parentLookupNanos;
+                default: throw new IllegalArgumentException("Unknown counter field " + field);
+            }
+        }
+
+        private void reset() {
+            classesDefined = 0;
+            bytesDefined = 0;
+            localLookups = 0;
+            localLookupMisses = 0;
+            localLookupNanos = 0;
+            parentDelegations = 0;
+            parentDelegationMisses = 0;
+            parentLookupNanos = 0;
+            for (int i = 0; i < BUCKET_NAMES.length; i++) {
+                localLookupHistogram[i] = 0;
+                parentLookupHistogram[i] = 0;
+            }
+            locationCounts.clear();
+        }
+    }
+}
@@ -32,9 +32,20 @@ import java.io.ObjectStreamClass;
  * @since 2.0
  */
 public final class ClassLoaderUtil {
+    private static final ClassLoaderLeakDetector leakDetector = new ClassLoaderLeakDetector();
+
     private ClassLoaderUtil() {
     }
 
+    /**
+     * Gets the detector which tracks every {@link NamedClassLoader} and reports the destroyed class loaders which are
+     * not garbage collected.
+     * @return the class loader leak detector
+     */
+    public static ClassLoaderLeakDetector getLeakDetector() {
+        return leakDetector;
+    }
+
     /**
      * Cleans well known class loader leaks in VMs and libraries.  There is a lot of bad code out there and this method
      * will clear up the know problems.  This method should only be called when the class loader will no longer be used.
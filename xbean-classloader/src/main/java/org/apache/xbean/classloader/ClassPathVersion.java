@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The version number of the class path seen by one class loader: its own urls and those of all its ancestors.  The
+ * version is incremented each time the class path of the class loader or of any of its ancestors changes, which tells
+ * the caches of missing names and package routes that a name missing before may now be found, either locally or in
+ * one of the parents.  A change does not affect unrelated class loaders, so building a new class loader leaves the
+ * caches of all the existing ones intact.
+ * <p/>
+ * Reading the version is a single volatile read.  A change is pushed down to the versions of the children, which
+ * register with their parents when they are created and are only weakly referenced by them.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ClassPathVersion {
+    private volatile int version = 0;
+
+    // weak references to the versions of the child class loaders
+    private final List children = new ArrayList();
+
+    /**
+     * Gets the current class path version.
+     * @return the current version
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Signals that the class path has changed, here or in an ancestor, and passes the change on to the children.
+     */
+    void increment() {
+        Object[] children;
+        synchronized (this) {
+            version++;
+            children = this.children.toArray();
+        }
+        for (int i = 0; i < children.length; i++) {
+            ClassPathVersion child = (ClassPathVersion) ((WeakReference) children[i]).get();
+            if (child != null) {
+                child.increment();
+            }
+        }
+    }
+
+    /**
+     * Follows the class path versions of the parents of a class loader.  A parent that is not a
+     * {@link MultiParentClassLoader} is searched for one in its own parent chain.
+     * @param parents the parents of the class loader owning this version
+     */
+    void addParents(ClassLoader[] parents) {
+        for (int i = 0; i < parents.length; i++) {
+            ClassLoader parent = parents[i];
+            try {
+                while (parent != null && !(parent instanceof MultiParentClassLoader)) {
+                    parent = parent.getParent();
+                }
+            } catch (SecurityException e) {
+                // the parent chain can not be followed; changes above this point are not seen
+                parent = null;
+            }
+            if (parent != null) {
+                ((MultiParentClassLoader) parent).getClassPathVersion().addChild(this);
+            }
+        }
+    }
+
+    private synchronized void addChild(ClassPathVersion child) {
+        for (Iterator iterator = children.iterator(); iterator.hasNext();) {
+            if (((WeakReference) iterator.next()).get() == null) {
+                iterator.remove();
+            }
+        }
+        children.add(new WeakReference(child));
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads a recorded list of classes into a class loader on a pool of worker threads, ahead of the thread that will
+ * use them.  The classes are loaded but not initialized, so preloading has no side effects beyond reading and
+ * defining the classes.  Since the class loaders in this package lock per class name, the workers define different
+ * classes in parallel, and the main thread only waits when it asks for a class a worker is defining at that moment.
+ * <p/>
+ * A typical startup records the defined classes with a {@link ClassDefinitionRecorder} and saves them; the next
+ * startup creates the class loader, starts a preloader with the saved list and continues booting right away.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ClassPreloader {
+    private final ClassLoader classLoader;
+    private final String[] classNames;
+    private final List workers = new ArrayList();
+
+    private int nextClass = 0;
+    private int loadedCount = 0;
+    private int failedCount = 0;
+    private boolean stopped = false;
+
+    /**
+     * Creates a preloader.
+     * @param classLoader the class loader to load the classes into
+     * @param classNames the names of the classes to load, in the order they should be loaded
+     */
+    public ClassPreloader(ClassLoader classLoader, List classNames) {
+        if (classLoader == null) throw new NullPointerException("classLoader is null");
+        if (classNames == null) throw new NullPointerException("classNames is null");
+        this.classLoader = classLoader;
+        this.classNames = (String[]) classNames.toArray(new String[classNames.size()]);
+    }
+
+    /**
+     * Starts loading the classes on daemon worker threads.
+     * @param threadCount the number of worker threads
+     */
+    public synchronized void start(int threadCount) {
+        if (threadCount < 1) throw new IllegalArgumentException("threadCount must be at least 1: " + threadCount);
+        if (!workers.isEmpty()) throw new IllegalStateException("Preloader already started");
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread worker = new Thread(new Worker(), "ClassPreloader-" + i);
+            worker.setDaemon(true);
+            worker.setContextClassLoader(classLoader);
+            workers.add(worker);
+        }
+        for (int i = 0; i < workers.size(); i++) {
+            ((Thread) workers.get(i)).start();
+        }
+    }
+
+    /**
+     * Stops handing out new classes to the workers.  Classes being loaded at the moment are still loaded.
+     */
+    public synchronized void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Waits for all worker threads to finish.
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public void waitForCompletion() throws InterruptedException {
+        Thread[] threads;
+        synchronized (this) {
+            threads = (Thread[]) workers.toArray(new Thread[workers.size()]);
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+    }
+
+    /**
+     * Gets the number of classes loaded so far.
+     * @return the number of loaded classes
+     */
+    public synchronized int getLoadedCount() {
+        return loadedCount;
+    }
+
+    /**
+     * Gets the number of classes that could not be loaded, usually because they are no longer on the class path.
+     * @return the number of classes that failed to load
+     */
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    private synchronized String nextClassName() {
+        if (stopped || nextClass >= classNames.length) {
+            return null;
+        }
+        return classNames[nextClass++];
+    }
+
+    private synchronized void loaded(boolean success) {
+        if (success) {
+            loadedCount++;
+        } else {
+            failedCount++;
+        }
+    }
+
+    private class Worker implements Runnable {
+        public void run() {
+            for (String className = nextClassName(); className != null; className = nextClassName()) {
+                boolean success = false;
+                try {
+                    Class.forName(className, false, classLoader);
+                    success = true;
+                } catch (ClassNotFoundException ignored) {
+                    // class was removed since the list was recorded
+                } catch (LinkageError ignored) {
+                    // the main thread will get the same error when it uses the class
+                } catch (RuntimeException ignored) {
+                    // keep preloading the other classes
+                }
+                loaded(success);
+            }
+        }
+    }
+}
@@ -33,22 +33,40 @@ public class DirectoryResourceHandle extends AbstractResourceHandle {
     private final String name;
     private final File file;
     private final Manifest manifest;
-    private final URL url;
     private final URL codeSource;
+    private URL url;
 
     public DirectoryResourceHandle(String name, File file, File codeSource, Manifest manifest) throws MalformedURLException {
+        this(name, file, codeSource.toURL(), manifest);
+    }
+
+    /**
+     * Creates a handle for a file in a directory.  The url of the file is created on first use, because class loading
+     * only needs the bytes.
+     * @param name the resource name
+     * @param file the file
+     * @param codeSource the url of the directory
+     * @param manifest the manifest of the directory, or null if the directory does not have one
+     */
+    public DirectoryResourceHandle(String name, File file, URL codeSource, Manifest manifest) {
         this.name = name;
         this.file = file;
-        this.codeSource = codeSource.toURL();
+        this.codeSource = codeSource;
         this.manifest = manifest;
-        url = file.toURL();
     }
 
     public String getName() {
         return name;
     }
 
-    public URL getUrl() {
+    public synchronized URL getUrl() {
+        if (url == null) {
+            try {
+                url = file.toURL();
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
         return url;
     }
 
@@ -67,6 +85,30 @@ public class DirectoryResourceHandle extends AbstractResourceHandle {
         return new FileInputStream(file);
     }
 
+    /**
+     * Reads the file directly into an array sized from its channel, so the file is only stat'ed once and the bytes are
+     * copied once.  If the file changes size while it is read, the bytes actually read are returned.
+     */
+    public byte[] getBytes() throws IOException {
+        if (file.isDirectory()) {
+            return new byte[0];
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        long size;
+        try {
+            size = in.getChannel().size();
+        } catch (IOException e) {
+            IoUtil.close(in);
+            throw e;
+        }
+        if (size > Integer.MAX_VALUE) {
+            IoUtil.close(in);
+            throw new IOException("File is too large: " + file.getAbsolutePath());
+        }
+        return IoUtil.getBytes(in, (int) size);
+    }
+
     public int getContentLength() {
         if (file.isDirectory() || file.length() > Integer.MAX_VALUE) {
             return -1;
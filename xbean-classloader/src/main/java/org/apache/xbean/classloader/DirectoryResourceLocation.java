@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.jar.Manifest;
 
 /**
@@ -41,15 +42,23 @@ public class DirectoryResourceLocation extends AbstractUrlResourceLocation {
             return null;
         }
 
+        // the code source url is shared by all of the handles
+        return new DirectoryResourceHandle(resourceName, file, getCodeSource(), getManifestSafe());
+    }
+
+    public URL getResourceUrl(String resourceName) {
+        File file = new File(baseDir, resourceName);
+        if (!file.exists()) {
+            return null;
+        }
         try {
-            ResourceHandle resourceHandle = new DirectoryResourceHandle(resourceName, file, baseDir, getManifestSafe());
-            return resourceHandle;
+            return file.toURL();
         } catch (MalformedURLException e) {
             return null;
         }
     }
 
-    public Manifest getManifest() throws IOException {
+    public synchronized Manifest getManifest() throws IOException {
         if (!manifestLoaded) {
             File manifestFile = new File(baseDir, "META-INF/MANIFEST.MF");
 
@@ -45,6 +45,50 @@ public final class IoUtil {
         }
     }
 
+    /**
+     * Reads the stream into a byte array allocated with the expected length, which avoids the intermediate buffers and
+     * copies of {@link #getBytes(InputStream)}.  If the stream is shorter or longer than expected, the actual content of
+     * the stream is returned.  The stream is always closed.
+     * @param inputStream the stream to read
+     * @param expectedLength the expected number of bytes in the stream, or -1 if unknown
+     * @return the content of the stream
+     * @throws IOException if an error occurs while reading the stream
+     */
+    public static byte[] getBytes(InputStream inputStream, int expectedLength) throws IOException {
+        if (expectedLength < 0) {
+            return getBytes(inputStream);
+        }
+
+        try {
+            byte[] bytes = new byte[expectedLength];
+            int offset = 0;
+            while (offset < expectedLength) {
+                int count = inputStream.read(bytes, offset, expectedLength - offset);
+                if (count < 0) {
+                    // stream is shorter than expected
+                    byte[] truncated = new byte[offset];
+                    System.arraycopy(bytes, 0, truncated, 0, offset);
+                    return truncated;
+                }
+                offset += count;
+            }
+
+            int next = inputStream.read();
+            if (next < 0) {
+                return bytes;
+            }
+
+            // stream is longer than expected, so read the rest the slow way
+            ByteArrayOutputStream out = new ByteArrayOutputStream(expectedLength * 2);
+            out.write(bytes);
+            out.write(next);
+            out.write(getBytes(inputStream));
+            return out.toByteArray();
+        } finally {
+            close(inputStream);
+        }
+    }
+
     public static void flush(OutputStream thing) {
         if (thing != null) {
             try {
@@ -18,6 +18,7 @@ package org.apache.xbean.classloader;
 
 import java.io.IOException;
 import java.io.File;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URI;
 import java.security.AccessControlContext;
@@ -29,8 +30,6 @@ import java.security.PrivilegedActionException;
 import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.jar.Attributes;
-import java.util.jar.Manifest;
 
 /**
  * The JarFileClassLoader that loads classes and resources from a list of JarFiles.  This method is simmilar to URLClassLoader
@@ -46,10 +45,22 @@ import java.util.jar.Manifest;
  * @since 2.0
  */
 public class JarFileClassLoader extends MultiParentClassLoader {
+    static {
+        // the registration is caller sensitive, so it must be invoked from this class (see NamedClassLoader)
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable", new Class[0]);
+            method.setAccessible(true);
+            method.invoke(null, new Object[0]);
+        } catch (Throwable ignored) {
+            // older vm; class loading is serialized by the vm
+        }
+    }
+
     private static final URL[] EMPTY_URLS = new URL[0];
 
-    private final UrlResourceFinder resourceFinder = new UrlResourceFinder();
+    private final UrlResourceFinder resourceFinder;
     private final AccessControlContext acc;
+    private final PackageMetadataCache packageMetadataCache = new PackageMetadataCache(getClassPathVersion());
 
     /**
      * Creates a JarFileClassLoader that is a child of the system class loader.
@@ -59,6 +70,7 @@ public class JarFileClassLoader extends MultiParentClassLoader {
     public JarFileClassLoader(String name, URL[] urls) {
         super(name, EMPTY_URLS);
         this.acc = AccessController.getContext();
+        this.resourceFinder = new UrlResourceFinder(null, getClassPathVersion());
         addURLs(urls);
     }
 
@@ -71,12 +83,14 @@ public class JarFileClassLoader extends MultiParentClassLoader {
     public JarFileClassLoader(String name, URL[] urls, ClassLoader parent) {
         super(name, EMPTY_URLS, parent);
         this.acc = AccessController.getContext();
+        this.resourceFinder = new UrlResourceFinder(null, getClassPathVersion());
         addURLs(urls);
     }
 
     public JarFileClassLoader(String name, URL[] urls, ClassLoader parent, boolean inverseClassLoading, String[] hiddenClasses, String[] nonOverridableClasses) {
         super(name, EMPTY_URLS, parent, inverseClassLoading, hiddenClasses, nonOverridableClasses);
         this.acc = AccessController.getContext();
+        this.resourceFinder = new UrlResourceFinder(null, getClassPathVersion());
         addURLs(urls);
     }
 
@@ -89,21 +103,93 @@ public class JarFileClassLoader extends MultiParentClassLoader {
     public JarFileClassLoader(String name, URL[] urls, ClassLoader[] parents) {
         super(name, EMPTY_URLS, parents);
         this.acc = AccessController.getContext();
+        this.resourceFinder = new UrlResourceFinder(null, getClassPathVersion());
         addURLs(urls);
     }
 
     public JarFileClassLoader(String name, URL[] urls, ClassLoader[] parents, boolean inverseClassLoading, Collection hiddenClasses, Collection nonOverridableClasses) {
         super(name, EMPTY_URLS, parents, inverseClassLoading, hiddenClasses, nonOverridableClasses);
         this.acc = AccessController.getContext();
+        this.resourceFinder = new UrlResourceFinder(null, getClassPathVersion());
         addURLs(urls);
     }
 
     public JarFileClassLoader(String name, URL[] urls, ClassLoader[] parents, boolean inverseClassLoading, String[] hiddenClasses, String[] nonOverridableClasses) {
         super(name, EMPTY_URLS, parents, inverseClassLoading, hiddenClasses, nonOverridableClasses);
         this.acc = AccessController.getContext();
+        this.resourceFinder = new UrlResourceFinder(null, getClassPathVersion());
+        addURLs(urls);
+    }
+
+    /**
+     * Creates a named class loader as a child of the specified parents, which uses a persistent jar index cache to
+     * avoid opening and scanning the jars on the class path that have not changed since they were cached.
+     * @param name the name of this class loader
+     * @param urls the urls from which this class loader will classes and resources
+     * @param parents the parents of this class loader
+     * @param inverseClassLoading if true, local urls are searched before the parents
+     * @param hiddenClasses class name prefixes which are never loaded from the parents
+     * @param nonOverridableClasses class name prefixes which are always loaded from the parents
+     * @param indexCache the persistent jar index cache, or null to disable caching
+     */
+    public JarFileClassLoader(String name, URL[] urls, ClassLoader[] parents, boolean inverseClassLoading, String[] hiddenClasses, String[] nonOverridableClasses, JarIndexCache indexCache) {
+        this(name, urls, parents, inverseClassLoading, hiddenClasses, nonOverridableClasses, indexCache, null);
+    }
+
+    /**
+     * Creates a named class loader which replaces a previous class loader, such as during a redeployment.  The jars of
+     * the previous class loader that have not changed since it opened them are taken over instead of being opened and
+     * indexed again.  The previous class loader must not be destroyed until this constructor returns.
+     * @param name the name of this class loader
+     * @param urls the urls from which this class loader will classes and resources
+     * @param parents the parents of this class loader
+     * @param inverseClassLoading if true, local urls are searched before the parents
+     * @param hiddenClasses class name prefixes which are never loaded from the parents
+     * @param nonOverridableClasses class name prefixes which are always loaded from the parents
+     * @param indexCache the persistent jar index cache, or null to disable caching
+     * @param previous the class loader being replaced, or null if there is none
+     */
+    public JarFileClassLoader(String name, URL[] urls, ClassLoader[] parents, boolean inverseClassLoading, String[] hiddenClasses, String[] nonOverridableClasses, JarIndexCache indexCache, final JarFileClassLoader previous) {
+        super(name, EMPTY_URLS, parents, inverseClassLoading, hiddenClasses, nonOverridableClasses);
+        this.acc = AccessController.getContext();
+        this.resourceFinder = new UrlResourceFinder(indexCache, getClassPathVersion());
+        if (previous != null) {
+            AccessController.doPrivileged(new PrivilegedAction() {
+                public Object run() {
+                    resourceFinder.reuseResourceLocations(previous.resourceFinder);
+                    return null;
+                }
+            }, acc);
+        }
         addURLs(urls);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void setClassLoaderListener(ClassLoaderListener classLoaderListener) {
+        super.setClassLoaderListener(classLoaderListener);
+        resourceFinder.setClassLoaderListener(classLoaderListener);
+    }
+
+    /**
+     * Gets the maximum total size of the cache of small resources read from the jars of this class loader.
+     * @return the maximum size in bytes, or zero if the cache is disabled
+     * @see UrlResourceFinder#setContentCacheSize(long)
+     */
+    public long getResourceContentCacheSize() {
+        return resourceFinder.getContentCacheSize();
+    }
+
+    /**
+     * Enables or disables the cache of small resources read from the jars of this class loader.
+     * @param resourceContentCacheSize the maximum total size of the cached content in bytes, or zero to disable the cache
+     * @see UrlResourceFinder#setContentCacheSize(long)
+     */
+    public void setResourceContentCacheSize(long resourceContentCacheSize) {
+        resourceFinder.setContentCacheSize(resourceContentCacheSize);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -158,21 +244,12 @@ public class JarFileClassLoader extends MultiParentClassLoader {
     /**
      * {@inheritDoc}
      */
-    public Enumeration findResources(final String resourceName) throws IOException {
-        // todo this is not right
-        // first get the resources from the parent classloaders
-        Enumeration parentResources = super.findResources(resourceName);
-
-        // get the classes from my urls
-        Enumeration myResources = (Enumeration) AccessController.doPrivileged(new PrivilegedAction() {
+    protected Enumeration findLocalResources(final String resourceName) {
+        return (Enumeration) AccessController.doPrivileged(new PrivilegedAction() {
             public Object run() {
                 return resourceFinder.findResources(resourceName);
             }
         }, acc);
-
-        // join the two together
-        Enumeration resources = new UnionEnumeration(parentResources, myResources);
-        return resources;
     }
 
     /**
@@ -244,14 +321,16 @@ public class JarFileClassLoader extends MultiParentClassLoader {
                         throw new ClassNotFoundException(className);
                     }
 
+                    // the code source url is used to define the package and as the security context for the class
+                    URL codeSourceUrl = resourceHandle.getCodeSourceUrl();
+
                     byte[] bytes;
-                    Manifest manifest;
                     try {
                         // get the bytes from the class file
                         bytes = resourceHandle.getBytes();
 
-                        // get the manifest for defining the packages
-                        manifest = resourceHandle.getManifest();
+                        // define the package (required for security); the manifest is only read for a new package
+                        definePackage(className, codeSourceUrl, resourceHandle);
                     } catch (IOException e) {
                         throw new ClassNotFoundException(className, e);
                     }
@@ -259,17 +338,17 @@ public class JarFileClassLoader extends MultiParentClassLoader {
                     // get the certificates for the code source
                     Certificate[] certificates = resourceHandle.getCertificates();
 
-                    // the code source url is used to define the package and as the security context for the class
-                    URL codeSourceUrl = resourceHandle.getCodeSourceUrl();
-
-                    // define the package (required for security)
-                    definePackage(className, codeSourceUrl, manifest);
-
                     // this is the security context of the class
                     CodeSource codeSource = new CodeSource(codeSourceUrl, certificates);
 
                     // load the class into the vm
                     Class clazz = defineClass(className, bytes, 0, bytes.length, codeSource);
+                    classDefined(bytes.length);
+
+                    ClassLoaderListener listener = getClassLoaderListener();
+                    if (listener != null) {
+                        listener.classDefined(className, codeSourceUrl, bytes.length);
+                    }
                     return clazz;
                 }
             }, acc);
@@ -278,67 +357,58 @@ public class JarFileClassLoader extends MultiParentClassLoader {
         }
     }
 
-    private void definePackage(String className, URL jarUrl, Manifest manifest) {
+    private void definePackage(String className, URL jarUrl, ResourceHandle resourceHandle) throws IOException {
         int packageEnd = className.lastIndexOf('.');
         if (packageEnd < 0) {
             return;
         }
-
         String packageName = className.substring(0, packageEnd);
-        String packagePath = packageName.replace('.', '/') + "/";
 
-        Attributes packageAttributes = null;
-        Attributes mainAttributes = null;
-        if (manifest != null) {
-            packageAttributes = manifest.getAttributes(packagePath);
-            mainAttributes = manifest.getMainAttributes();
+        // the package was already defined or checked for this code source
+        if (packageMetadataCache.contains(jarUrl, packageName)) {
+            return;
         }
-        Package pkg = getPackage(packageName);
-        if (pkg != null) {
-            if (pkg.isSealed()) {
-                if (!pkg.isSealed(jarUrl)) {
-                    throw new SecurityException("Package was already sealed with another URL: package=" + packageName + ", url=" + jarUrl);
-                }
-            } else {
-                if (isSealed(packageAttributes, mainAttributes)) {
-                    throw new SecurityException("Package was already been loaded and not sealed: package=" + packageName + ", url=" + jarUrl);
-                }
-            }
-        } else {
-            String specTitle = getAttribute(Attributes.Name.SPECIFICATION_TITLE, packageAttributes, mainAttributes);
-            String specVendor = getAttribute(Attributes.Name.SPECIFICATION_VENDOR, packageAttributes, mainAttributes);
-            String specVersion = getAttribute(Attributes.Name.SPECIFICATION_VERSION, packageAttributes, mainAttributes);
-            String implTitle = getAttribute(Attributes.Name.IMPLEMENTATION_TITLE, packageAttributes, mainAttributes);
-            String implVendor = getAttribute(Attributes.Name.IMPLEMENTATION_VENDOR, packageAttributes, mainAttributes);
-            String implVersion = getAttribute(Attributes.Name.IMPLEMENTATION_VERSION, packageAttributes, mainAttributes);
 
+        PackageMetadata metadata = new PackageMetadata(resourceHandle.getManifest(), packageName);
+        definePackage(packageName, jarUrl, metadata);
+        packageMetadataCache.add(jarUrl, packageName);
+    }
+
+    private void definePackage(String packageName, URL jarUrl, PackageMetadata metadata) {
+        Package pkg = getPackage(packageName);
+        if (pkg == null) {
             URL sealBase = null;
-            if (isSealed(packageAttributes, mainAttributes)) {
+            if (metadata.isSealed()) {
                 sealBase = jarUrl;
             }
 
-            definePackage(packageName, specTitle, specVersion, specVendor, implTitle, implVersion, implVendor, sealBase);
-        }
-    }
-
-    private String getAttribute(Attributes.Name name, Attributes packageAttributes, Attributes mainAttributes) {
-        if (packageAttributes != null) {
-            String value = packageAttributes.getValue(name);
-            if (value != null) {
-                return value;
+            try {
+                definePackage(packageName,
+                        metadata.getSpecTitle(),
+                        metadata.getSpecVersion(),
+                        metadata.getSpecVendor(),
+                        metadata.getImplTitle(),
+                        metadata.getImplVersion(),
+                        metadata.getImplVendor(),
+                        sealBase);
+                return;
+            } catch (IllegalArgumentException e) {
+                // another thread defined the package while we were loading a different class from the same package
+                pkg = getPackage(packageName);
+                if (pkg == null) {
+                    throw e;
+                }
             }
         }
-        if (mainAttributes != null) {
-            return mainAttributes.getValue(name);
-        }
-        return null;
-    }
 
-    private boolean isSealed(Attributes packageAttributes, Attributes mainAttributes) {
-        String sealed = getAttribute(Attributes.Name.SEALED, packageAttributes, mainAttributes);
-        if (sealed == null) {
-            return false;
+        if (pkg.isSealed()) {
+            if (!pkg.isSealed(jarUrl)) {
+                throw new SecurityException("Package was already sealed with another URL: package=" + packageName + ", url=" + jarUrl);
+            }
+        } else {
+            if (metadata.isSealed()) {
+                throw new SecurityException("Package was already been loaded and not sealed: package=" + packageName + ", url=" + jarUrl);
+            }
         }
-        return "true".equalsIgnoreCase(sealed);
     }
 }
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+/**
+ * A process wide pool of the jar files used by {@link UrlResourceFinder}, so a jar on the class path of many class
+ * loaders is opened and indexed once.  Jars are keyed by canonical path, size and last modified time; a jar that is
+ * replaced on disk gets a new entry while the class loaders using the old one keep it until they are destroyed.
+ *
+ * @version $Rev$ $Date$
+ */
+final class JarFilePool {
+    private static final Map jarFiles = new HashMap();
+
+    private JarFilePool() {
+    }
+
+    /**
+     * Gets a reference to the shared jar for the file, opening the jar if it is not in the pool.  The caller must
+     * call {@link SharedJarFile#release()} when it is done with the jar.
+     * @param file the jar file
+     * @param indexCache the persistent index used to avoid opening an unchanged jar, or null
+     * @return a shared jar
+     * @throws IOException if the jar can not be opened
+     */
+    static SharedJarFile acquire(File file, JarIndexCache indexCache) throws IOException {
+        String key = getKey(file);
+        synchronized (JarFilePool.class) {
+            SharedJarFile sharedJarFile = (SharedJarFile) jarFiles.get(key);
+            if (sharedJarFile != null && sharedJarFile.retain()) {
+                return sharedJarFile;
+            }
+        }
+
+        // not pooled yet; open it without holding the pool lock
+        SharedJarFile sharedJarFile = null;
+        if (indexCache != null) {
+            sharedJarFile = indexCache.getSharedJarFile(key, file);
+        }
+        if (sharedJarFile == null) {
+            sharedJarFile = new SharedJarFile(key, file, new JarFile(file));
+            if (indexCache != null) {
+                try {
+                    indexCache.put(file, sharedJarFile);
+                } catch (IOException ignored) {
+                    // bad manifest; don't cache this jar
+                }
+            }
+        }
+
+        synchronized (JarFilePool.class) {
+            SharedJarFile existing = (SharedJarFile) jarFiles.get(key);
+            if (existing != null && existing.retain()) {
+                // another thread opened the same jar first
+                sharedJarFile.release();
+                return existing;
+            }
+            jarFiles.put(key, sharedJarFile);
+            return sharedJarFile;
+        }
+    }
+
+    static synchronized void remove(SharedJarFile sharedJarFile) {
+        if (jarFiles.get(sharedJarFile.getPoolKey()) == sharedJarFile) {
+            jarFiles.remove(sharedJarFile.getPoolKey());
+        }
+    }
+
+    /**
+     * Gets the number of jars in the pool.
+     * @return the number of pooled jars
+     */
+    static synchronized int size() {
+        return jarFiles.size();
+    }
+
+    private static String getKey(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+        return path + '|' + file.length() + '|' + file.lastModified();
+    }
+}
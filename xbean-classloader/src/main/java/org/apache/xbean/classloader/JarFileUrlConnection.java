@@ -52,8 +52,13 @@ public class JarFileUrlConnection extends JarURLConnection {
     private final JarFile jarFile;
     private final JarEntry jarEntry;
     private final URL jarFileUrl;
+    private final ResourceContentCache contentCache;
 
     public JarFileUrlConnection(URL url, JarFile jarFile, JarEntry jarEntry) throws MalformedURLException {
+        this(url, jarFile, jarEntry, null);
+    }
+
+    JarFileUrlConnection(URL url, JarFile jarFile, JarEntry jarEntry, ResourceContentCache contentCache) throws MalformedURLException {
         super(DUMMY_JAR_URL);
 
         if (url == null) throw new NullPointerException("url is null");
@@ -63,6 +68,7 @@ public class JarFileUrlConnection extends JarURLConnection {
         this.url = url;
         this.jarFile = jarFile;
         this.jarEntry = jarEntry;
+        this.contentCache = contentCache;
         jarFileUrl = new File(jarFile.getName()).toURL();
     }
 
@@ -118,6 +124,10 @@ public class JarFileUrlConnection extends JarURLConnection {
     }
 
     public synchronized InputStream getInputStream() throws IOException {
+        if (contentCache != null) {
+            // the file part of the url is the code source and entry name
+            return contentCache.getInputStream(url.getFile(), jarFile, jarEntry);
+        }
         return jarFile.getInputStream(jarEntry);
     }
 
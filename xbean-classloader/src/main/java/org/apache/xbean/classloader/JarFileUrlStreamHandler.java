@@ -35,7 +35,12 @@ public class JarFileUrlStreamHandler extends URLStreamHandler {
     }
 
     public static URL createUrl(JarFile jarFile, JarEntry jarEntry, URL codeSource) throws MalformedURLException {
+        return createUrl(jarFile, jarEntry, codeSource, null);
+    }
+
+    static URL createUrl(JarFile jarFile, JarEntry jarEntry, URL codeSource, ResourceContentCache contentCache) throws MalformedURLException {
         JarFileUrlStreamHandler handler = new JarFileUrlStreamHandler(jarFile, jarEntry);
+        handler.contentCache = contentCache;
         URL url = new URL("jar", "", -1, codeSource + "!/" + jarEntry.getName(), handler);
         handler.setExpectedUrl(url);
         return url;
@@ -44,6 +49,7 @@ public class JarFileUrlStreamHandler extends URLStreamHandler {
     private URL expectedUrl;
     private final JarFile jarFile;
     private final JarEntry jarEntry;
+    private ResourceContentCache contentCache;
 
     public JarFileUrlStreamHandler(JarFile jarFile, JarEntry jarEntry) {
         if (jarFile == null) throw new NullPointerException("jarFile is null");
@@ -98,9 +104,9 @@ public class JarFileUrlStreamHandler extends URLStreamHandler {
             if (newEntry == null) {
                 throw new FileNotFoundException("Entry not found: " + url);
             }
-            return new JarFileUrlConnection(url, jarFile, newEntry);
+            return new JarFileUrlConnection(url, jarFile, newEntry, contentCache);
         }
 
-        return new JarFileUrlConnection(url, jarFile, jarEntry);
+        return new JarFileUrlConnection(url, jarFile, jarEntry, contentCache);
     }
 }
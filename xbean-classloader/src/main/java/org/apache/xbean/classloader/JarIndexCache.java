@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent cache of the index and manifest Class-Path of jar files, which allows a restarted server to build the
+ * class path of a UrlResourceFinder without opening and scanning every jar.  Jars are identified by canonical path and
+ * an entry is only used if the size and last modified time of the jar have not changed.  The cache is shared by all of
+ * the finders that use it, and is written back to disk when a finder adds a new or changed jar.
+ *
+ * @version $Rev$ $Date$
+ */
+public class JarIndexCache {
+    private static final int MAGIC = 0x58424a49;
+    private static final int FORMAT_VERSION = 1;
+
+    private final File cacheFile;
+    private final Map entries = new HashMap();
+    private boolean modified = false;
+
+    /**
+     * Creates a cache backed by the specified file.  The file is read immediately if it exists; an unreadable or
+     * corrupt file is ignored and will be replaced on the next save.
+     * @param cacheFile the file in which the cache is stored
+     */
+    public JarIndexCache(File cacheFile) {
+        if (cacheFile == null) throw new NullPointerException("cacheFile is null");
+        this.cacheFile = cacheFile;
+        load();
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Gets an unopened shared jar for the file from the cache.
+     * @param poolKey the key of the jar in the jar file pool
+     * @param file the jar file
+     * @return the shared jar, or null if the jar is not in the cache or has changed since it was cached
+     */
+    synchronized SharedJarFile getSharedJarFile(String poolKey, File file) {
+        Entry entry = (Entry) entries.get(getKey(file));
+        if (entry == null || entry.size != file.length() || entry.lastModified != file.lastModified()) {
+            return null;
+        }
+        return new SharedJarFile(poolKey, file, entry.packageNames, entry.manifestClassPath);
+    }
+
+    /**
+     * Adds the index of an open jar to the cache.
+     * @param file the jar file
+     * @param sharedJarFile the open jar
+     * @throws IOException if the manifest of the jar can not be read
+     */
+    synchronized void put(File file, SharedJarFile sharedJarFile) throws IOException {
+        Entry entry = new Entry(file.length(),
+                file.lastModified(),
+                sharedJarFile.getPackageNames(),
+                sharedJarFile.getManifestClassPath());
+        entries.put(getKey(file), entry);
+        modified = true;
+    }
+
+    /**
+     * Writes the cache to disk if it has been modified.  The cache is written to a temporary file which then replaces
+     * the cache file, so a concurrent reader never sees a partially written cache.
+     * @throws IOException if the cache can not be written
+     */
+    public synchronized void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory: " + parent);
+        }
+        File tempFile = new File(parent, cacheFile.getName() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Iterator iterator = entries.entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry mapEntry = (Map.Entry) iterator.next();
+                String key = (String) mapEntry.getKey();
+                Entry entry = (Entry) mapEntry.getValue();
+
+                writeString(out, key);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeBoolean(entry.manifestClassPath != null);
+                if (entry.manifestClassPath != null) {
+                    writeString(out, entry.manifestClassPath);
+                }
+                out.writeInt(entry.packageNames.size());
+                for (Iterator packages = entry.packageNames.iterator(); packages.hasNext();) {
+                    writeString(out, (String) packages.next());
+                }
+            }
+        } finally {
+            IoUtil.close(out);
+        }
+
+        if (!tempFile.renameTo(cacheFile)) {
+            // windows will not rename over an existing file
+            cacheFile.delete();
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete();
+                throw new IOException("Could not replace cache file: " + cacheFile);
+            }
+        }
+        modified = false;
+    }
+
+    private void load() {
+        if (!cacheFile.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String manifestClassPath = null;
+                if (in.readBoolean()) {
+                    manifestClassPath = readString(in);
+                }
+                String[] packageNames = new String[in.readInt()];
+                for (int j = 0; j < packageNames.length; j++) {
+                    packageNames[j] = readString(in);
+                }
+                entries.put(key, new Entry(size, lastModified, Arrays.asList(packageNames), manifestClassPath));
+            }
+        } catch (IOException e) {
+            // corrupt cache; start over
+            entries.clear();
+        } catch (RuntimeException e) {
+            // corrupt cache; start over
+            entries.clear();
+        } finally {
+            IoUtil.close(in);
+        }
+    }
+
+    private static String getKey(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final Set packageNames;
+        private final String manifestClassPath;
+
+        private Entry(long size, long lastModified, Collection packageNames, String manifestClassPath) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.packageNames = new HashSet(packageNames);
+            this.manifestClassPath = manifestClassPath;
+        }
+    }
+}
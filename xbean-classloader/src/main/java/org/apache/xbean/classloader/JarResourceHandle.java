@@ -32,21 +32,37 @@ import java.security.cert.Certificate;
 public class JarResourceHandle extends AbstractResourceHandle {
     private final JarFile jarFile;
     private final JarEntry jarEntry;
-    private final URL url;
     private final URL codeSource;
+    private final ResourceContentCache contentCache;
+    private URL url;
 
     public JarResourceHandle(JarFile jarFile, JarEntry jarEntry, URL codeSource) throws MalformedURLException {
+        this(jarFile, jarEntry, codeSource, null);
+    }
+
+    JarResourceHandle(JarFile jarFile, JarEntry jarEntry, URL codeSource, ResourceContentCache contentCache) {
         this.jarFile = jarFile;
         this.jarEntry = jarEntry;
-        this.url = JarFileUrlStreamHandler.createUrl(jarFile, jarEntry, codeSource);
         this.codeSource = codeSource;
+        this.contentCache = contentCache;
     }
 
     public String getName() {
         return jarEntry.getName();
     }
 
-    public URL getUrl() {
+    /**
+     * Gets the url of the resource.  The url is created on first use, because class loading only needs the bytes.
+     * @return the url of the resource, or null if a url can not be created for the entry name
+     */
+    public synchronized URL getUrl() {
+        if (url == null) {
+            try {
+                url = JarFileUrlStreamHandler.createUrl(jarFile, jarEntry, codeSource, contentCache);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
         return url;
     }
 
@@ -59,6 +75,9 @@ public class JarResourceHandle extends AbstractResourceHandle {
     }
 
     public InputStream getInputStream() throws IOException {
+        if (contentCache != null) {
+            return contentCache.getInputStream(ResourceContentCache.getKey(codeSource.toExternalForm(), jarEntry.getName()), jarFile, jarEntry);
+        }
         return jarFile.getInputStream(jarEntry);
     }
 
@@ -22,35 +22,110 @@ import java.util.jar.JarEntry;
 import java.net.URL;
 import java.net.MalformedURLException;
 import java.io.IOException;
+import java.util.Set;
 
 /**
  * @version $Rev$ $Date$
  */
 public class JarResourceLocation extends AbstractUrlResourceLocation  {
-    private final JarFile jarFile;
+    private final SharedJarFile sharedJarFile;
+    private volatile boolean closed;
+    private volatile ResourceContentCache contentCache;
 
     public JarResourceLocation(URL codeSource, JarFile jarFile) {
+        this(codeSource, new SharedJarFile(jarFile));
+    }
+
+    /**
+     * Creates a location for a jar which may be shared with other locations.  The location owns one reference to the
+     * shared jar, which is released when the location is closed.
+     * @param codeSource the code source of the jar
+     * @param sharedJarFile the shared jar
+     */
+    JarResourceLocation(URL codeSource, SharedJarFile sharedJarFile) {
         super(codeSource);
-        this.jarFile = jarFile;
+        this.sharedJarFile = sharedJarFile;
+    }
+
+    /**
+     * Sets the cache used by the resources of this location to read small entries.
+     * @param contentCache the content cache, or null to always read the entries from the jar
+     */
+    void setContentCache(ResourceContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    SharedJarFile getSharedJarFile() {
+        return sharedJarFile;
+    }
+
+    /**
+     * Creates another location for this jar, sharing the open jar file and its index, if the jar file has not changed
+     * since it was opened.
+     * @return the new location, or null if this location is closed or the jar file has changed
+     */
+    JarResourceLocation share() {
+        if (closed || !sharedJarFile.isUnchanged() || !sharedJarFile.retain()) {
+            return null;
+        }
+        return new JarResourceLocation(getCodeSource(), sharedJarFile);
+    }
+
+    private JarFile getJarFile() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Jar file is closed: " + sharedJarFile.getFile());
+        }
+        return sharedJarFile.getJarFile();
     }
 
     public ResourceHandle getResourceHandle(String resourceName) {
-        JarEntry jarEntry = jarFile.getJarEntry(resourceName);
-        if (jarEntry != null) {
-            try {
-                URL url = new URL(getCodeSource(), resourceName);
-                return new JarResourceHandle(jarFile, jarEntry, getCodeSource());
-            } catch (MalformedURLException e) {
+        try {
+            JarFile jarFile = getJarFile();
+            JarEntry jarEntry = jarFile.getJarEntry(resourceName);
+            if (jarEntry != null) {
+                return new JarResourceHandle(jarFile, jarEntry, getCodeSource(), contentCache);
+            }
+        } catch (IOException e) {
+            // jar file changed since it was indexed and can no longer be opened
+        }
+        return null;
+    }
+
+    public URL getResourceUrl(String resourceName) {
+        try {
+            JarFile jarFile = getJarFile();
+            JarEntry jarEntry = jarFile.getJarEntry(resourceName);
+            if (jarEntry != null) {
+                return JarFileUrlStreamHandler.createUrl(jarFile, jarEntry, getCodeSource(), contentCache);
             }
+        } catch (MalformedURLException e) {
+        } catch (IOException e) {
+            // jar file changed since it was indexed and can no longer be opened
         }
         return null;
     }
 
     public Manifest getManifest() throws IOException {
-        return jarFile.getManifest();
+        return getJarFile().getManifest();
     }
 
-    public void close() {
-        IoUtil.close(jarFile);
+    /**
+     * Gets the Class-Path attribute of the jar manifest.
+     * @return the Class-Path attribute, or null if the jar does not have a manifest or the attribute
+     * @throws IOException if the manifest can not be read
+     */
+    public String getManifestClassPath() throws IOException {
+        return sharedJarFile.getManifestClassPath();
+    }
+
+    public Set getPackageNames() {
+        return sharedJarFile.getPackageNames();
+    }
+
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            sharedJarFile.release();
+        }
     }
 }
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded set of class or resource names that could not be found by a class loader.  The cache is cleared whenever
+ * the {@link ClassPathVersion} of the class loader changes.
+ * <p/>
+ * Lookups are on the path of every class and resource load, so they take no lock: the names are kept in a map that is
+ * never modified once published, and each addition publishes a copy.  Additions only happen after a failed search of
+ * the whole class loader graph, which costs far more than the copy.  When the cache is full the oldest name is
+ * dropped.
+ *
+ * @version $Rev$ $Date$
+ */
+final class MissingNameCache {
+    private final ClassPathVersion classPathVersion;
+    private volatile Snapshot snapshot;
+    private volatile int maxSize;
+
+    MissingNameCache(ClassPathVersion classPathVersion, int maxSize) {
+        this.classPathVersion = classPathVersion;
+        this.maxSize = maxSize;
+        snapshot = new Snapshot(new LinkedHashMap(), classPathVersion.getVersion());
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of names remembered.  A size of zero disables the cache.
+     * @param maxSize the maximum number of names
+     */
+    synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize is negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        snapshot = new Snapshot(new LinkedHashMap(), classPathVersion.getVersion());
+    }
+
+    /**
+     * Checks if the name is known to be missing.
+     * @param name the class or resource name
+     * @return true if the name was missing at the current class path version
+     */
+    boolean contains(String name) {
+        if (maxSize == 0) {
+            return false;
+        }
+        Snapshot snapshot = this.snapshot;
+        return snapshot.version == classPathVersion.getVersion() && snapshot.names.containsKey(name);
+    }
+
+    /**
+     * Remembers a name as missing.  The name is ignored if the class path changed while it was being searched for,
+     * because the search may not have seen the new class path.
+     * @param name the class or resource name
+     * @param searchVersion the class path version at the start of the search
+     */
+    synchronized void add(String name, int searchVersion) {
+        if (maxSize == 0 || searchVersion != classPathVersion.getVersion()) {
+            return;
+        }
+
+        LinkedHashMap names;
+        if (snapshot.version == searchVersion) {
+            if (snapshot.names.containsKey(name)) {
+                return;
+            }
+            names = new LinkedHashMap(snapshot.names);
+        } else {
+            names = new LinkedHashMap();
+        }
+        names.put(name, Boolean.TRUE);
+        for (Iterator iterator = names.keySet().iterator(); names.size() > maxSize;) {
+            iterator.next();
+            iterator.remove();
+        }
+        snapshot = new Snapshot(names, searchVersion);
+    }
+
+    private static final class Snapshot {
+        // never modified after construction
+        private final Map names;
+        private final int version;
+
+        private Snapshot(Map names, int version) {
+            this.names = names;
+            this.version = version;
+        }
+    }
+}
@@ -17,14 +17,19 @@
 package org.apache.xbean.classloader;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLStreamHandlerFactory;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.List;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * A MultiParentClassLoader is a simple extension of the URLClassLoader that simply changes the single parent class
@@ -38,12 +43,43 @@ import java.util.List;
  * @since 2.0
  */
 public class MultiParentClassLoader extends NamedClassLoader {
+    /**
+     * The default maximum number of missing class names and missing resource names remembered by each class loader.
+     * The cache is disabled by default; see {@link #setMissingCacheSize(int)}.
+     */
+    public static final int DEFAULT_MISSING_CACHE_SIZE = 0;
+
+    static {
+        // the registration is caller sensitive, so it must be invoked from this class (see NamedClassLoader)
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable", new Class[0]);
+            method.setAccessible(true);
+            method.invoke(null, new Object[0]);
+        } catch (Throwable ignored) {
+            // older vm; class loading is serialized by the vm
+        }
+    }
+
     private final ClassLoader[] parents;
     private final boolean inverseClassLoading;
-    private final String[] hiddenClasses;
-    private final String[] nonOverridableClasses;
-    private final String[] hiddenResources;
-    private final String[] nonOverridableResources;
+    private final PrefixTrie hiddenClasses;
+    private final PrefixTrie nonOverridableClasses;
+    private final PrefixTrie hiddenResources;
+    private final PrefixTrie nonOverridableResources;
+
+    /**
+     * Locks used to serialize the loading of a single class name.  The map is weakly keyed by the class name and the
+     * values are weak references to the lock, so an entry only lives while some thread is loading the class.
+     */
+    private final Map classLocks = new WeakHashMap();
+
+    // the version of the class path of this class loader and its ancestors, which invalidates the caches below
+    private final ClassPathVersion classPathVersion = new ClassPathVersion();
+    private final MissingNameCache missingClasses = new MissingNameCache(classPathVersion, DEFAULT_MISSING_CACHE_SIZE);
+    private final MissingNameCache missingResources = new MissingNameCache(classPathVersion, DEFAULT_MISSING_CACHE_SIZE);
+
+    private volatile ClassLoaderListener classLoaderListener;
+    private volatile PackageRouteCache packageRoutes;
 
     /**
      * Creates a named class loader with no parents.
@@ -101,11 +137,12 @@ public class MultiParentClassLoader extends NamedClassLoader {
     public MultiParentClassLoader(String name, URL[] urls, ClassLoader[] parents, URLStreamHandlerFactory factory) {
         super(name, urls, null, factory);
         this.parents = copyParents(parents);
+        classPathVersion.addParents(this.parents);
         this.inverseClassLoading = false;
-        this.hiddenClasses = new String[0];
-        this.nonOverridableClasses = new String[0];
-        this.hiddenResources = new String[0];
-        this.nonOverridableResources = new String[0];
+        this.hiddenClasses = new PrefixTrie(new String[0]);
+        this.nonOverridableClasses = new PrefixTrie(new String[0]);
+        this.hiddenResources = new PrefixTrie(new String[0]);
+        this.nonOverridableResources = new PrefixTrie(new String[0]);
     }
 
     public MultiParentClassLoader(String name, URL[] urls, ClassLoader[] parents, boolean inverseClassLoading, Collection hiddenClasses, Collection nonOverridableClasses) {
@@ -115,11 +152,12 @@ public class MultiParentClassLoader extends NamedClassLoader {
     public MultiParentClassLoader(String name, URL[] urls, ClassLoader[] parents, boolean inverseClassLoading, String[] hiddenClasses, String[] nonOverridableClasses) {
         super(name, urls);
         this.parents = copyParents(parents);
+        classPathVersion.addParents(this.parents);
         this.inverseClassLoading = inverseClassLoading;
-        this.hiddenClasses = hiddenClasses;
-        this.nonOverridableClasses = nonOverridableClasses;
-        hiddenResources = toResources(hiddenClasses);
-        nonOverridableResources = toResources(nonOverridableClasses);
+        this.hiddenClasses = new PrefixTrie(hiddenClasses);
+        this.nonOverridableClasses = new PrefixTrie(nonOverridableClasses);
+        hiddenResources = new PrefixTrie(toResources(hiddenClasses));
+        nonOverridableResources = new PrefixTrie(toResources(nonOverridableClasses));
     }
 
     private static String[] toResources(String[] classes) {
@@ -151,26 +189,155 @@ public class MultiParentClassLoader extends NamedClassLoader {
         return parents;
     }
 
+    /**
+     * Gets the version of the class path of this class loader and its ancestors.
+     * @return the class path version
+     */
+    ClassPathVersion getClassPathVersion() {
+        return classPathVersion;
+    }
+
+    /**
+     * Gets the maximum number of missing class names and missing resource names remembered by this class loader.
+     * @return the maximum number of names remembered
+     */
+    public int getMissingCacheSize() {
+        return missingClasses.getMaxSize();
+    }
+
+    /**
+     * Sets the maximum number of missing class names and missing resource names remembered by this class loader.
+     * A repeated lookup of a remembered name fails immediately without searching the parents again.  The cache is
+     * cleared when the urls of this class loader or of a MultiParentClassLoader among its ancestors change, or a
+     * watched class path file of one of them appears.  It can not detect classes defined in a parent by other means
+     * (such as a reflective call to defineClass), or changes to the urls of other kinds of class loaders, so it is
+     * disabled by default and should only be enabled when no parent defines classes on the fly.
+     * @param missingCacheSize the maximum number of names remembered, or zero to disable the cache
+     */
+    public void setMissingCacheSize(int missingCacheSize) {
+        missingClasses.setMaxSize(missingCacheSize);
+        missingResources.setMaxSize(missingCacheSize);
+    }
+
+    /**
+     * Gets the listener receiving the class loading events of this class loader.
+     * @return the listener, or null if none is installed
+     */
+    public ClassLoaderListener getClassLoaderListener() {
+        return classLoaderListener;
+    }
+
+    /**
+     * Installs a listener for the class loading events of this class loader, such as a {@link ClassLoaderStatistics}.
+     * The lookups are only timed while a listener is installed.
+     * @param classLoaderListener the listener, or null to remove the current listener
+     */
+    public void setClassLoaderListener(ClassLoaderListener classLoaderListener) {
+        this.classLoaderListener = classLoaderListener;
+    }
+
+    /**
+     * Is package routing enabled?
+     * @return true if classes are loaded from the source that supplied the other classes in their package
+     * @see #setPackageRoutingEnabled(boolean)
+     */
+    public boolean isPackageRoutingEnabled() {
+        return packageRoutes != null;
+    }
+
+    /**
+     * Enables or disables package routing.  When enabled, this class loader remembers which parent, or the local urls,
+     * first supplied a class from each package, and loads the later classes of the package directly from there.  Only
+     * when the class is not found there are the parents searched in order.  This avoids a failed delegation to each of
+     * the preceding parents for every class, but when a package is split across several parents a class may be loaded
+     * from a later parent even though an earlier parent also has it.  Hidden classes are never routed to a parent,
+     * non-overridable classes are never routed to the local urls, and the routes are forgotten when the urls of this
+     * class loader or of a MultiParentClassLoader among its ancestors change.
+     * @param packageRoutingEnabled true to enable package routing
+     */
+    public void setPackageRoutingEnabled(boolean packageRoutingEnabled) {
+        if (packageRoutingEnabled) {
+            if (packageRoutes == null) {
+                packageRoutes = new PackageRouteCache(classPathVersion);
+            }
+        } else {
+            packageRoutes = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void addURL(URL url) {
+        super.addURL(url);
+        classPathVersion.increment();
+    }
+
     /**
      * {@inheritDoc}
      */
-    protected synchronized Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    protected Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        // a class that is already loaded needs no lock; the lock map is shared by all the names of this class loader
+        Class cachedClass = findLoadedClass(name);
+        if (cachedClass != null) {
+            return resolveClass(cachedClass, resolve);
+        }
+
+        // classes are loaded in parallel, but only one thread may load a specific class at a time
+        synchronized (getClassLock(name)) {
+            return loadClassInternal(name, resolve);
+        }
+    }
+
+    private Class loadClassInternal(String name, boolean resolve) throws ClassNotFoundException {
         //
-        // Check if class is in the loaded classes cache
+        // Check if class is in the loaded classes cache; another thread may have loaded it while we waited for the lock
         //
         Class cachedClass = findLoadedClass(name);
         if (cachedClass != null) {
             return resolveClass(cachedClass, resolve);
         }
-        
+
+        //
+        // Check if we already know the class can not be found
+        //
+        int searchVersion = classPathVersion.getVersion();
+        if (missingClasses.contains(name)) {
+            throw new ClassNotFoundException(name + " in classloader " + name);
+        }
+
+        ClassLoaderListener listener = classLoaderListener;
+        PackageRouteCache packageRoutes = this.packageRoutes;
+
         //
         // if we are using inverse class loading, check local urls first
         //
         if (inverseClassLoading && !isDestroyed() && !isNonOverridableClass(name)) {
             try {
-                Class clazz = findClass(name);
+                Class clazz = findLocalClass(name, listener);
+                learnRoute(packageRoutes, name, PackageRouteCache.LOCAL, searchVersion);
+                return resolveClass(clazz, resolve);
+            } catch (ClassNotFoundException ignored) {
+            }
+        }
+
+        //
+        // Try the source that supplied the other classes in this package
+        //
+        int route = getRoute(packageRoutes, name);
+        if (route >= 0) {
+            try {
+                Class clazz = loadParentClass(parents[route], name, listener);
+                return resolveClass(clazz, resolve);
+            } catch (ClassNotFoundException ignored) {
+                // the package is split; search all of the parents
+            }
+        } else if (route == PackageRouteCache.LOCAL) {
+            try {
+                Class clazz = findLocalClass(name, listener);
                 return resolveClass(clazz, resolve);
             } catch (ClassNotFoundException ignored) {
+                // the package is split; search all of the parents
             }
         }
 
@@ -179,9 +346,13 @@ public class MultiParentClassLoader extends NamedClassLoader {
         //
         if (!isHiddenClass(name)) {
             for (int i = 0; i < parents.length; i++) {
-                ClassLoader parent = parents[i];
+                if (i == route) {
+                    // already checked
+                    continue;
+                }
                 try {
-                    Class clazz = parent.loadClass(name);
+                    Class clazz = loadParentClass(parents[i], name, listener);
+                    learnRoute(packageRoutes, name, i, searchVersion);
                     return resolveClass(clazz, resolve);
                 } catch (ClassNotFoundException ignored) {
                     // this parent didn't have the class; try the next one
@@ -195,33 +366,107 @@ public class MultiParentClassLoader extends NamedClassLoader {
         // don't worry about excluding non-overridable classes here... we
         // have alredy checked he parent and the parent didn't have the
         // class, so we can override now
-        if (!isDestroyed()) {
+        if (!isDestroyed() && route != PackageRouteCache.LOCAL) {
             try {
-                Class clazz = findClass(name);
+                Class clazz = findLocalClass(name, listener);
+                learnRoute(packageRoutes, name, PackageRouteCache.LOCAL, searchVersion);
                 return resolveClass(clazz, resolve);
             } catch (ClassNotFoundException ignored) {
             }
         }
 
+        missingClasses.add(name, searchVersion);
         throw new ClassNotFoundException(name + " in classloader " + name);
     }
 
-    private boolean isNonOverridableClass(String name) {
-        for (int i = 0; i < nonOverridableClasses.length; i++) {
-            if (name.startsWith(nonOverridableClasses[i])) {
-                return true;
-            }
+    private Class loadParentClass(ClassLoader parent, String name, ClassLoaderListener listener) throws ClassNotFoundException {
+        if (listener == null) {
+            return parent.loadClass(name);
+        }
+
+        long start = NanoClock.nanoTime();
+        boolean found = false;
+        try {
+            Class clazz = parent.loadClass(name);
+            found = true;
+            return clazz;
+        } finally {
+            listener.parentClassLookup(parent, name, found, NanoClock.nanoTime() - start);
         }
-        return false;
     }
 
-    private boolean isHiddenClass(String name) {
-        for (int i = 0; i < hiddenClasses.length; i++) {
-            if (name.startsWith(hiddenClasses[i])) {
-                return true;
+    /**
+     * Gets the route to use for a class.  A route to a parent is not used for a hidden class, and a route to the local
+     * urls is not used for a non-overridable class or when the local urls have already been checked.
+     */
+    private int getRoute(PackageRouteCache packageRoutes, String name) {
+        if (packageRoutes == null) {
+            return PackageRouteCache.NO_ROUTE;
+        }
+        int route = packageRoutes.get(getPackageName(name));
+        if (route >= 0 && isHiddenClass(name)) {
+            return PackageRouteCache.NO_ROUTE;
+        }
+        if (route == PackageRouteCache.LOCAL && (inverseClassLoading || isDestroyed() || isNonOverridableClass(name))) {
+            return PackageRouteCache.NO_ROUTE;
+        }
+        return route;
+    }
+
+    private void learnRoute(PackageRouteCache packageRoutes, String name, int route, int searchVersion) {
+        // hidden and non-overridable classes are not loaded in the normal order, so they say nothing about the package
+        if (packageRoutes != null && !isHiddenClass(name) && !isNonOverridableClass(name)) {
+            packageRoutes.put(getPackageName(name), route, searchVersion);
+        }
+    }
+
+    private static String getPackageName(String className) {
+        int lastDot = className.lastIndexOf('.');
+        if (lastDot < 0) {
+            return "";
+        }
+        return className.substring(0, lastDot);
+    }
+
+    private Class findLocalClass(String name, ClassLoaderListener listener) throws ClassNotFoundException {
+        if (listener == null) {
+            return findClass(name);
+        }
+
+        long start = NanoClock.nanoTime();
+        boolean found = false;
+        try {
+            Class clazz = findClass(name);
+            found = true;
+            return clazz;
+        } finally {
+            listener.localClassLookup(name, found, NanoClock.nanoTime() - start);
+        }
+    }
+
+    private Object getClassLock(String className) {
+        synchronized (classLocks) {
+            WeakReference lockReference = (WeakReference) classLocks.get(className);
+            ClassLock lock = null;
+            if (lockReference != null) {
+                lock = (ClassLock) lockReference.get();
             }
+            if (lock == null) {
+                // remove the stale entry first, so the map key is the same string instance held by the lock
+                classLocks.remove(className);
+                lock = new ClassLock(className);
+                classLocks.put(className, new WeakReference(lock));
+            }
+            return lock;
         }
-        return false;
+    }
+
+    private boolean isNonOverridableClass(String name) {
+        return nonOverridableClasses.matchesPrefixOf(name);
+    }
+
+    private boolean isHiddenClass(String name) {
+        return hiddenClasses.matchesPrefixOf(name);
     }
 
     private Class resolveClass(Class clazz, boolean resolve) {
@@ -239,6 +484,14 @@ public class MultiParentClassLoader extends NamedClassLoader {
             return null;
         }
 
+        //
+        // Check if we already know the resource can not be found
+        //
+        int searchVersion = classPathVersion.getVersion();
+        if (missingResources.contains(name)) {
+            return null;
+        }
+
         //
         // if we are using inverse class loading, check local urls first
         //
@@ -270,66 +523,74 @@ public class MultiParentClassLoader extends NamedClassLoader {
         // resource, so we can override now
         if (!isDestroyed()) {
             // parents didn't have the resource; attempt to load it from my urls
-            return findResource(name);
+            URL url = findResource(name);
+            if (url != null) {
+                return url;
+            }
         }
 
+        missingResources.add(name, searchVersion);
         return null;
     }
 
     /**
-     * {@inheritDoc}
+     * Finds all resources with the specified name in this class loader and the parents.  The enumerations of the
+     * parents and the local urls are all obtained up front, so an IOException from any of them reaches the caller, but
+     * their urls are only pulled in class loader order as the returned enumeration is consumed, so a caller that only
+     * needs the first few resources does not walk the whole class loader graph.  A url found more than once is only
+     * returned the first time.
+     * @param name the resource name
+     * @return an enumeration of the resource URLs
+     * @throws IOException if a parent or the local urls can not be searched
      */
     public Enumeration findResources(String name) throws IOException {
         if (isDestroyed()) {
             return Collections.enumeration(Collections.EMPTY_SET);
         }
 
-        List resources = new ArrayList();
+        Enumeration[] sources = new Enumeration[parents.length + 1];
+        int count = 0;
 
         //
         // if we are using inverse class loading, add the resources from local urls first
         //
         if (inverseClassLoading && !isDestroyed()) {
-            List myResources = Collections.list(super.findResources(name));
-            resources.addAll(myResources);
+            sources[count++] = findLocalResources(name);
         }
 
         //
         // Add parent resources
         //
         for (int i = 0; i < parents.length; i++) {
-            ClassLoader parent = parents[i];
-            List parentResources = Collections.list(parent.getResources(name));
-            resources.addAll(parentResources);
+            sources[count++] = parents[i].getResources(name);
         }
 
         //
         // if we are not using inverse class loading, add the resources from local urls now
         //
         if (!inverseClassLoading && !isDestroyed()) {
-            List myResources = Collections.list(super.findResources(name));
-            resources.addAll(myResources);
+            sources[count++] = findLocalResources(name);
         }
 
-        return Collections.enumeration(resources);
+        return new MergedResourceEnumeration(sources, count);
+    }
+
+    /**
+     * Finds the resources with the specified name in the local urls of this class loader.
+     * @param name the resource name
+     * @return an enumeration of the local resource URLs
+     * @throws IOException if an error occurs while searching the local urls
+     */
+    protected Enumeration findLocalResources(String name) throws IOException {
+        return super.findResources(name);
     }
 
     private boolean isNonOverridableResource(String name) {
-        for (int i = 0; i < nonOverridableResources.length; i++) {
-            if (name.startsWith(nonOverridableResources[i])) {
-                return true;
-            }
-        }
-        return false;
+        return nonOverridableResources.matchesPrefixOf(name);
     }
 
     private boolean isHiddenResource(String name) {
-        for (int i = 0; i < hiddenResources.length; i++) {
-            if (name.startsWith(hiddenResources[i])) {
-                return true;
-            }
-        }
-        return false;
+        return hiddenResources.matchesPrefixOf(name);
     }
 
     /**
@@ -342,4 +603,85 @@ public class MultiParentClassLoader extends NamedClassLoader {
                 " parents=" + Arrays.asList(parents) +
                 "]";
     }
+
+    /**
+     * Enumerates the resources of the parents and the local urls in class loader order.  Each source is only read
+     * when all of the resources from the previous sources have been consumed.
+     */
+    private static final class MergedResourceEnumeration implements Enumeration {
+        private final Enumeration[] sources;
+        private final int sourceCount;
+        private final Set seen = new HashSet();
+        private int nextSource = 0;
+        private Enumeration current;
+        private URL next;
+
+        private MergedResourceEnumeration(Enumeration[] sources, int sourceCount) {
+            this.sources = sources;
+            this.sourceCount = sourceCount;
+        }
+
+        public boolean hasMoreElements() {
+            fetchNext();
+            return (next != null);
+        }
+
+        public Object nextElement() {
+            fetchNext();
+
+            // save next into a local variable and clear the next field
+            URL next = this.next;
+            this.next = null;
+
+            // if we didn't have a next throw an exception
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            return next;
+        }
+
+        private void fetchNext() {
+            while (next == null) {
+                if (current == null || !current.hasMoreElements()) {
+                    current = openNextSource();
+                    if (current == null) {
+                        // no more elements
+                        return;
+                    }
+                } else {
+                    // URL.equals may resolve host names, so compare the external form
+                    URL url = (URL) current.nextElement();
+                    if (seen.add(url.toExternalForm())) {
+                        next = url;
+                    }
+                }
+            }
+        }
+
+        private Enumeration openNextSource() {
+            if (nextSource == sourceCount) {
+                return null;
+            }
+            Enumeration source = sources[nextSource];
+            // clear the consumed source so it can be GCed
+            sources[nextSource++] = null;
+            return source;
+        }
+    }
+
+    /**
+     * The lock for a class name.  The lock holds the class name strongly so the entry in the weak lock map can not be
+     * collected while a thread is still using the lock.
+     */
+    private static final class ClassLock {
+        private final String className;
+
+        private ClassLock(String className) {
+            this.className = className;
+        }
+
+        public String toString() {
+            return "[ClassLock: " + className + "]";
+        }
+    }
 }
@@ -16,6 +16,7 @@
  */
 package org.apache.xbean.classloader;
 
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLStreamHandlerFactory;
@@ -31,8 +32,23 @@ import java.util.Arrays;
  * @since 2.0
  */
 public class NamedClassLoader extends URLClassLoader implements DestroyableClassLoader {
+    static {
+        // Register this class with the JavaVM as parallel capable, so the vm does not lock the whole class loader when
+        // it loads a class through it.  The registration method only exists in Java 7 and later and is caller
+        // sensitive, so it must be invoked reflectively from the static initializer of every class loader class in
+        // the hierarchy.
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable", new Class[0]);
+            method.setAccessible(true);
+            method.invoke(null, new Object[0]);
+        } catch (Throwable ignored) {
+            // older vm; class loading is serialized by the vm
+        }
+    }
+
     private final String name;
-    private boolean destroyed = false;
+    private final TrackedClassLoader trackedClassLoader;
+    private volatile boolean destroyed = false;
 
     /**
      * Creates a named class loader with no parents.
@@ -42,6 +58,7 @@ public class NamedClassLoader extends URLClassLoader implements DestroyableClass
     public NamedClassLoader(String name, URL[] urls) {
         super(urls);
         this.name = name;
+        this.trackedClassLoader = ClassLoaderUtil.getLeakDetector().register(this, name);
     }
 
     /**
@@ -53,6 +70,7 @@ public class NamedClassLoader extends URLClassLoader implements DestroyableClass
     public NamedClassLoader(String name, URL[] urls, ClassLoader parent) {
         super(urls, parent);
         this.name = name;
+        this.trackedClassLoader = ClassLoaderUtil.getLeakDetector().register(this, name);
     }
 
     /**
@@ -66,13 +84,14 @@ public class NamedClassLoader extends URLClassLoader implements DestroyableClass
     public NamedClassLoader(String name, URL[] urls, ClassLoader parent, URLStreamHandlerFactory factory) {
         super(urls, parent, factory);
         this.name = name;
+        this.trackedClassLoader = ClassLoaderUtil.getLeakDetector().register(this, name);
     }
 
     /**
      * Check if this classloader has been destroyed 
      * @return
      */
-    public synchronized boolean isDestroyed() {
+    public boolean isDestroyed() {
         return destroyed;
     }
 
@@ -85,6 +104,25 @@ public class NamedClassLoader extends URLClassLoader implements DestroyableClass
             destroyed = true;
         }
         ClassLoaderUtil.destroy(this);
+        trackedClassLoader.destroyed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Class findClass(String name) throws ClassNotFoundException {
+        Class clazz = super.findClass(name);
+        // URLClassLoader does not expose the class file, so the size is not known
+        classDefined(0);
+        return clazz;
+    }
+
+    /**
+     * Counts a class defined by this class loader for the {@link ClassLoaderLeakDetector}.
+     * @param size the size of the class file, or zero if it is not known
+     */
+    void classDefined(int size) {
+        trackedClassLoader.classDefined(size);
     }
 
     /**
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+/**
+ * Reads System.nanoTime() when the vm has it, and falls back to the millisecond clock on older vms.  The vm is checked
+ * once, and every later call goes straight to the chosen clock.
+ *
+ * @version $Rev$ $Date$
+ */
+abstract class NanoClock {
+    private static final NanoClock CLOCK = createClock();
+
+    /**
+     * Gets the current value of the most precise clock available, in nanoseconds.  Only the difference between two
+     * values is meaningful.
+     * @return the current time in nanoseconds
+     */
+    static long nanoTime() {
+        return CLOCK.now();
+    }
+
+    abstract long now();
+
+    private static NanoClock createClock() {
+        try {
+            System.class.getMethod("nanoTime", new Class[0]);
+            return new SystemNanoClock();
+        } catch (Throwable ignored) {
+            // older vm
+            return new MillisecondClock();
+        }
+    }
+
+    /**
+     * Only loaded on vms which have System.nanoTime().
+     */
+    private static final class SystemNanoClock extends NanoClock {
+        long now() {
+            return System.nanoTime();
+        }
+    }
+
+    private static final class MillisecondClock extends NanoClock {
+        long now() {
+            return System.currentTimeMillis() * 1000000L;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * A resource in a {@link NestedJarResourceLocation}.
+ *
+ * @version $Rev$ $Date$
+ */
+public class NestedJarResourceHandle extends AbstractResourceHandle {
+    private final NestedJarResourceLocation location;
+    private final ZipDirectory.Entry entry;
+    private URL url;
+
+    NestedJarResourceHandle(NestedJarResourceLocation location, ZipDirectory.Entry entry) {
+        this.location = location;
+        this.entry = entry;
+    }
+
+    public String getName() {
+        return entry.getName();
+    }
+
+    public synchronized URL getUrl() {
+        if (url == null) {
+            try {
+                url = NestedJarUrlStreamHandler.createUrl(location, entry.getName());
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+        return url;
+    }
+
+    public URL getCodeSourceUrl() {
+        return location.getCodeSource();
+    }
+
+    public boolean isDirectory() {
+        return entry.isDirectory();
+    }
+
+    public InputStream getInputStream() throws IOException {
+        return new ByteArrayInputStream(getBytes());
+    }
+
+    public int getContentLength() {
+        return (int) entry.getSize();
+    }
+
+    public byte[] getBytes() throws IOException {
+        return location.getBytes(entry);
+    }
+
+    public Manifest getManifest() throws IOException {
+        return location.getManifest();
+    }
+
+    public Attributes getAttributes() throws IOException {
+        Manifest manifest = getManifest();
+        if (manifest == null) {
+            return null;
+        }
+        return manifest.getAttributes(entry.getName());
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * A jar stored inside another jar, such as a library inside a deployment archive, served in place without extracting
+ * it to a temporary file.  The inner jar must be stored in the outer jar without compression; its own entries may be
+ * compressed.  The region of the outer file holding the inner jar is memory mapped, and entries are read from the
+ * mapping by offset.
+ * <p/>
+ * A mapping can not be released explicitly; it is unmapped only when the buffer is garbage collected, which may be
+ * long after {@link #close()}.  Until then the outer jar stays open, so on Windows it can not be deleted or replaced
+ * even though every location using it has been closed.  Redeploying an archive in place on Windows should wait for
+ * the old class loader to be collected, or use a new file name.
+ * <p/>
+ * The code source of the location is a url of the form <code>jar:file:/outer.jar!/path/inner.jar</code>.  The
+ * signatures of signed inner jars are not verified, so resources from these jars have no certificates.
+ *
+ * @version $Rev$ $Date$
+ */
+public class NestedJarResourceLocation extends AbstractUrlResourceLocation {
+    private final String entryName;
+    private final File outerFile;
+    private final long outerLength;
+    private final long outerLastModified;
+    private volatile ByteBuffer jar;
+    private volatile ZipDirectory directory;
+    private Set packageNames;
+    private Manifest manifest;
+    private boolean manifestLoaded;
+
+    /**
+     * Opens a jar stored inside another jar.
+     * @param codeSource the code source of the inner jar
+     * @param outerFile the outer jar file
+     * @param entryName the name of the inner jar entry in the outer jar
+     * @throws IOException if the outer jar can not be read or the inner jar is compressed
+     */
+    public NestedJarResourceLocation(URL codeSource, File outerFile, String entryName) throws IOException {
+        super(codeSource);
+        this.entryName = entryName;
+        this.outerFile = outerFile;
+        this.outerLength = outerFile.length();
+        this.outerLastModified = outerFile.lastModified();
+
+        RandomAccessFile file = new RandomAccessFile(outerFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ZipDirectory outerDirectory = ZipDirectory.read(channel);
+            ZipDirectory.Entry entry = outerDirectory.getEntry(entryName);
+            if (entry == null || entry.isDirectory()) {
+                throw new IOException("Nested jar not found: " + codeSource);
+            }
+            if (entry.getMethod() != ZipEntry.STORED) {
+                throw new IOException("Nested jar must be stored without compression: " + codeSource);
+            }
+            if (entry.getSize() != entry.getCompressedSize() || entry.getSize() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid nested jar size: " + codeSource);
+            }
+
+            // the mapping stays valid after the channel is closed
+            long offset = ZipDirectory.getDataOffset(channel, entry);
+            jar = channel.map(FileChannel.MapMode.READ_ONLY, offset, entry.getSize());
+        } finally {
+            file.close();
+        }
+        directory = ZipDirectory.read(jar);
+    }
+
+    private NestedJarResourceLocation(NestedJarResourceLocation location, ByteBuffer jar, ZipDirectory directory) {
+        super(location.getCodeSource());
+        this.entryName = location.entryName;
+        this.outerFile = location.outerFile;
+        this.outerLength = location.outerLength;
+        this.outerLastModified = location.outerLastModified;
+        this.jar = jar;
+        this.directory = directory;
+    }
+
+    /**
+     * Creates another location for this nested jar, sharing the mapping and the parsed directory, if the outer jar
+     * file has not changed since it was mapped.
+     * @return the new location, or null if this location is closed or the outer jar file has changed
+     */
+    NestedJarResourceLocation share() {
+        ByteBuffer jar = this.jar;
+        ZipDirectory directory = this.directory;
+        if (jar == null || directory == null) {
+            return null;
+        }
+        if (outerFile.length() != outerLength || outerFile.lastModified() != outerLastModified) {
+            return null;
+        }
+        return new NestedJarResourceLocation(this, jar, directory);
+    }
+
+    public ResourceHandle getResourceHandle(String resourceName) {
+        ZipDirectory directory = getDirectory();
+        ZipDirectory.Entry entry = directory.getEntry(resourceName);
+        if (entry == null) {
+            // like JarFile.getJarEntry, a directory can be found without the trailing slash
+            entry = directory.getEntry(resourceName + "/");
+            if (entry == null) {
+                return null;
+            }
+        }
+        return new NestedJarResourceHandle(this, entry);
+    }
+
+    public synchronized Manifest getManifest() throws IOException {
+        if (!manifestLoaded) {
+            ZipDirectory.Entry entry = getDirectory().getEntry(JarFile.MANIFEST_NAME);
+            if (entry != null) {
+                manifest = new Manifest(new ByteArrayInputStream(getBytes(entry)));
+            }
+            manifestLoaded = true;
+        }
+        return manifest;
+    }
+
+    public synchronized Set getPackageNames() {
+        if (packageNames == null) {
+            Set names = new HashSet();
+            for (Iterator iterator = getDirectory().getEntries().iterator(); iterator.hasNext();) {
+                ZipDirectory.Entry entry = (ZipDirectory.Entry) iterator.next();
+                names.add(ResourceIndex.getPackageName(entry.getName()));
+            }
+            packageNames = Collections.unmodifiableSet(names);
+        }
+        return packageNames;
+    }
+
+    /**
+     * Closes this location.  The mapping of the outer jar is not released here, but when the buffer is garbage
+     * collected once no shared location refers to it.
+     */
+    public void close() {
+        directory = null;
+        jar = null;
+    }
+
+    byte[] getBytes(ZipDirectory.Entry entry) throws IOException {
+        ByteBuffer jar = this.jar;
+        if (jar == null) {
+            throw new IllegalStateException("Nested jar is closed: " + entryName);
+        }
+        return ZipDirectory.getBytes(jar, entry);
+    }
+
+    private ZipDirectory getDirectory() {
+        ZipDirectory directory = this.directory;
+        if (directory == null) {
+            throw new IllegalStateException("Nested jar is closed: " + entryName);
+        }
+        return directory;
+    }
+}
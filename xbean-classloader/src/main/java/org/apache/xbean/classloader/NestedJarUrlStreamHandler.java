@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+/**
+ * Opens the urls of resources in a {@link NestedJarResourceLocation}.  The urls have the form
+ * <code>jar:jar:file:/outer.jar!/inner.jar!/resource</code>, which the system jar handler can not open.
+ *
+ * @version $Rev$ $Date$
+ */
+public class NestedJarUrlStreamHandler extends URLStreamHandler {
+    private final NestedJarResourceLocation location;
+
+    static URL createUrl(NestedJarResourceLocation location, String entryName) throws MalformedURLException {
+        return new URL("jar", "", -1, location.getCodeSource() + "!/" + entryName, new NestedJarUrlStreamHandler(location));
+    }
+
+    NestedJarUrlStreamHandler(NestedJarResourceLocation location) {
+        this.location = location;
+    }
+
+    protected URLConnection openConnection(URL url) throws IOException {
+        // the entry name follows the last "!/"; the url may have been derived from the original one
+        String file = url.getFile();
+        int separator = file.lastIndexOf("!/");
+        if (separator < 0) {
+            throw new MalformedURLException("Url does not contain a '!' character: " + url);
+        }
+        String entryName = file.substring(separator + 2);
+
+        ResourceHandle resourceHandle = location.getResourceHandle(entryName);
+        if (resourceHandle == null) {
+            throw new FileNotFoundException("Entry not found: " + url);
+        }
+        return new NestedJarUrlConnection(url, resourceHandle);
+    }
+
+    private static class NestedJarUrlConnection extends URLConnection {
+        private final ResourceHandle resourceHandle;
+
+        private NestedJarUrlConnection(URL url, ResourceHandle resourceHandle) {
+            super(url);
+            this.resourceHandle = resourceHandle;
+        }
+
+        public void connect() {
+            connected = true;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return resourceHandle.getInputStream();
+        }
+
+        public int getContentLength() {
+            return resourceHandle.getContentLength();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * The package attributes declared by the manifest of a code source, resolved once per package.  A package section of
+ * the manifest overrides the main section.
+ *
+ * @version $Rev$ $Date$
+ */
+final class PackageMetadata {
+    private final String specTitle;
+    private final String specVendor;
+    private final String specVersion;
+    private final String implTitle;
+    private final String implVendor;
+    private final String implVersion;
+    private final boolean sealed;
+
+    /**
+     * Resolves the attributes of a package.
+     * @param manifest the manifest of the code source, or null if the code source does not have one
+     * @param packageName the package name
+     */
+    PackageMetadata(Manifest manifest, String packageName) {
+        Attributes packageAttributes = null;
+        Attributes mainAttributes = null;
+        if (manifest != null) {
+            String packagePath = packageName.replace('.', '/') + "/";
+            packageAttributes = manifest.getAttributes(packagePath);
+            mainAttributes = manifest.getMainAttributes();
+        }
+        specTitle = getAttribute(Attributes.Name.SPECIFICATION_TITLE, packageAttributes, mainAttributes);
+        specVendor = getAttribute(Attributes.Name.SPECIFICATION_VENDOR, packageAttributes, mainAttributes);
+        specVersion = getAttribute(Attributes.Name.SPECIFICATION_VERSION, packageAttributes, mainAttributes);
+        implTitle = getAttribute(Attributes.Name.IMPLEMENTATION_TITLE, packageAttributes, mainAttributes);
+        implVendor = getAttribute(Attributes.Name.IMPLEMENTATION_VENDOR, packageAttributes, mainAttributes);
+        implVersion = getAttribute(Attributes.Name.IMPLEMENTATION_VERSION, packageAttributes, mainAttributes);
+        sealed = "true".equalsIgnoreCase(getAttribute(Attributes.Name.SEALED, packageAttributes, mainAttributes));
+    }
+
+    String getSpecTitle() {
+        return specTitle;
+    }
+
+    String getSpecVendor() {
+        return specVendor;
+    }
+
+    String getSpecVersion() {
+        return specVersion;
+    }
+
+    String getImplTitle() {
+        return implTitle;
+    }
+
+    String getImplVendor() {
+        return implVendor;
+    }
+
+    String getImplVersion() {
+        return implVersion;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    private static String getAttribute(Attributes.Name name, Attributes packageAttributes, Attributes mainAttributes) {
+        if (packageAttributes != null) {
+            String value = packageAttributes.getValue(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (mainAttributes != null) {
+            return mainAttributes.getValue(name);
+        }
+        return null;
+    }
+}
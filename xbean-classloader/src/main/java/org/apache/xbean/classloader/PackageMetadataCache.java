@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The packages a class loader has defined, or checked against an existing definition, for each code source.  A class
+ * from a package that is already in the cache for its code source needs no manifest lookup and no sealing check.  The
+ * cache is cleared whenever the {@link ClassPathVersion} of the class loader changes, because a code source may then
+ * have a new manifest.
+ * <p/>
+ * The lookup runs for every class defined, so it takes no lock and allocates nothing.  The code sources are keyed by
+ * identity: every resource of a location shares the code source url of the location, so the url is in effect the key
+ * of the location, and a code source that is equal but not identical is just checked once more.  Like
+ * {@link MissingNameCache}, the packages are kept in maps that are never modified once published, and each new package
+ * publishes a copy.
+ *
+ * @version $Rev$ $Date$
+ */
+final class PackageMetadataCache {
+    private final ClassPathVersion classPathVersion;
+    private volatile Snapshot snapshot;
+
+    PackageMetadataCache(ClassPathVersion classPathVersion) {
+        this.classPathVersion = classPathVersion;
+        snapshot = new Snapshot(new IdentityHashMap(), classPathVersion.getVersion());
+    }
+
+    /**
+     * Checks if a package was already defined or checked for a code source.
+     * @param codeSource the code source
+     * @param packageName the package name
+     * @return true if the package has been checked for the code source at the current class path version
+     */
+    boolean contains(URL codeSource, String packageName) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot.version != classPathVersion.getVersion()) {
+            return false;
+        }
+        Set packages = (Set) snapshot.codeSources.get(codeSource);
+        return packages != null && packages.contains(packageName);
+    }
+
+    /**
+     * Remembers that a package was defined or checked for a code source.
+     * @param codeSource the code source
+     * @param packageName the package name
+     */
+    synchronized void add(URL codeSource, String packageName) {
+        if (contains(codeSource, packageName)) {
+            return;
+        }
+
+        int version = classPathVersion.getVersion();
+        Map codeSources;
+        if (snapshot.version == version) {
+            codeSources = new IdentityHashMap(snapshot.codeSources);
+        } else {
+            codeSources = new IdentityHashMap();
+        }
+
+        Set packages = (Set) codeSources.get(codeSource);
+        if (packages == null) {
+            packages = new HashSet();
+        } else {
+            packages = new HashSet(packages);
+        }
+        packages.add(packageName);
+        codeSources.put(codeSource, Collections.unmodifiableSet(packages));
+        snapshot = new Snapshot(codeSources, version);
+    }
+
+    private static final class Snapshot {
+        // code source url -> package names; never modified after construction
+        private final Map codeSources;
+        private final int version;
+
+        private Snapshot(Map codeSources, int version) {
+            this.codeSources = codeSources;
+            this.version = version;
+        }
+    }
+}
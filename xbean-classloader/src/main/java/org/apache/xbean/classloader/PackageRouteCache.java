@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers which parent class loader, or the local urls, first supplied a class from each package, so later classes
+ * in the package can be loaded from there without searching the other parents.  The cache is cleared whenever the
+ * {@link ClassPathVersion} of the class loader changes.
+ * <p/>
+ * Like {@link MissingNameCache}, lookups take no lock: the routes are kept in a map that is never modified once
+ * published, and each new route publishes a copy.  A route is only learned once per package.
+ *
+ * @version $Rev$ $Date$
+ */
+final class PackageRouteCache {
+    /**
+     * No route is known for the package.
+     */
+    static final int NO_ROUTE = -2;
+
+    /**
+     * Classes in the package are defined from the local urls.
+     */
+    static final int LOCAL = -1;
+
+    private final ClassPathVersion classPathVersion;
+    private volatile Snapshot snapshot;
+
+    PackageRouteCache(ClassPathVersion classPathVersion) {
+        this.classPathVersion = classPathVersion;
+        snapshot = new Snapshot(new HashMap(), classPathVersion.getVersion());
+    }
+
+    /**
+     * Gets the route for a package.
+     * @param packageName the package name
+     * @return the index of the parent, {@link #LOCAL} or {@link #NO_ROUTE}
+     */
+    int get(String packageName) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot.version != classPathVersion.getVersion()) {
+            return NO_ROUTE;
+        }
+        Integer route = (Integer) snapshot.routes.get(packageName);
+        if (route == null) {
+            return NO_ROUTE;
+        }
+        return route.intValue();
+    }
+
+    /**
+     * Remembers the route for a package, unless a route is already known.  The route is ignored if the class path
+     * changed while the class was being searched for, because the search may not have seen the new class path.
+     * @param packageName the package name
+     * @param route the index of the parent or {@link #LOCAL}
+     * @param searchVersion the class path version at the start of the search
+     */
+    synchronized void put(String packageName, int route, int searchVersion) {
+        if (searchVersion != classPathVersion.getVersion()) {
+            return;
+        }
+
+        Map routes;
+        if (snapshot.version == searchVersion) {
+            if (snapshot.routes.containsKey(packageName)) {
+                return;
+            }
+            routes = new HashMap(snapshot.routes);
+        } else {
+            routes = new HashMap();
+        }
+        routes.put(packageName, new Integer(route));
+        snapshot = new Snapshot(routes, searchVersion);
+    }
+
+    private static final class Snapshot {
+        // never modified after construction
+        private final Map routes;
+        private final int version;
+
+        private Snapshot(Map routes, int version) {
+            this.routes = routes;
+            this.version = version;
+        }
+    }
+}
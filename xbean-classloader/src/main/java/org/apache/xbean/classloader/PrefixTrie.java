@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of string prefixes compiled into a character trie.  Checking if a name starts with any of the
+ * prefixes costs at most the length of the name, regardless of the number of prefixes, and does not allocate.
+ *
+ * @version $Rev$ $Date$
+ */
+final class PrefixTrie {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Node root = new Node();
+    private final boolean empty;
+
+    PrefixTrie(String[] prefixes) {
+        for (int i = 0; i < prefixes.length; i++) {
+            add(prefixes[i]);
+        }
+        empty = prefixes.length == 0;
+    }
+
+    /**
+     * Checks if the name starts with any of the prefixes in this trie.
+     * @param name the name to check
+     * @return true if the name starts with one of the prefixes
+     */
+    boolean matchesPrefixOf(String name) {
+        if (empty) {
+            return false;
+        }
+
+        Node node = root;
+        if (node.terminal) {
+            return true;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            node = node.getChild(name.charAt(i));
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.addChild(prefix.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    private static final class Node {
+        // keys are sorted so children can be found with a binary search
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private boolean terminal;
+
+        private Node getChild(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index < 0) {
+                return null;
+            }
+            return children[index];
+        }
+
+        private Node addChild(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            // insert the new child in sorted position
+            index = -(index + 1);
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+
+            Node child = new Node();
+            newKeys[index] = key;
+            newChildren[index] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * A size bounded, least recently used cache of the content of small jar entries, such as service provider files,
+ * property files and schemas, which are read repeatedly.  A cached entry is served from memory instead of being
+ * inflated from the jar again.  Class files are never cached, because a class is only read once.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ResourceContentCache {
+    private final long maxSize;
+    private final int maxEntrySize;
+    private long size;
+    private long hits;
+    private long misses;
+
+    // key -> byte[], in access order
+    private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * Creates a cache.
+     * @param maxSize the maximum total size of the cached content in bytes
+     * @param maxEntrySize the maximum size of a single cached entry in bytes
+     */
+    ResourceContentCache(long maxSize, int maxEntrySize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Opens a jar entry, from the cache if possible.
+     * @param key the cache key; the url of the entry without the jar protocol
+     * @param jarFile the jar file
+     * @param jarEntry the entry
+     * @return a stream of the entry content
+     * @throws IOException if the entry can not be read
+     */
+    InputStream getInputStream(String key, JarFile jarFile, JarEntry jarEntry) throws IOException {
+        if (!isCacheable(jarEntry)) {
+            return jarFile.getInputStream(jarEntry);
+        }
+
+        byte[] bytes = get(key);
+        if (bytes == null) {
+            InputStream in = jarFile.getInputStream(jarEntry);
+            try {
+                bytes = IoUtil.getBytes(in, (int) jarEntry.getSize());
+            } finally {
+                IoUtil.close(in);
+            }
+            put(key, bytes);
+        }
+        // the stream never modifies the array, so the cached array can be shared
+        return new ByteArrayInputStream(bytes);
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private boolean isCacheable(JarEntry jarEntry) {
+        long entrySize = jarEntry.getSize();
+        return !jarEntry.isDirectory() &&
+                entrySize >= 0 &&
+                entrySize <= maxEntrySize &&
+                !jarEntry.getName().endsWith(".class");
+    }
+
+    private synchronized byte[] get(String key) {
+        byte[] bytes = (byte[]) entries.get(key);
+        if (bytes == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return bytes;
+    }
+
+    private synchronized void put(String key, byte[] bytes) {
+        byte[] previous = (byte[]) entries.put(key, bytes);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += bytes.length;
+
+        for (Iterator iterator = entries.values().iterator(); size > maxSize && iterator.hasNext();) {
+            byte[] eldest = (byte[]) iterator.next();
+            iterator.remove();
+            size -= eldest.length;
+        }
+    }
+
+    static String getKey(String codeSource, String entryName) {
+        return codeSource + "!/" + entryName;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.xbean.classloader;
 
+import java.net.URL;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Collection;
@@ -64,9 +65,10 @@ public class ResourceEnumeration implements Enumeration {
         try {
             while (iterator.hasNext()) {
                 ResourceLocation resourceLocation = (ResourceLocation) iterator.next();
-                ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
-                if (resourceHandle != null) {
-                    next = resourceHandle.getUrl();
+                // only the url is needed, so no resource handle is created
+                URL url = UrlResourceFinder.getResourceUrl(resourceLocation, resourceName);
+                if (url != null) {
+                    next = url;
                     return;
                 }
             }
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable index of a class path, which maps each package to the resource locations that may contain resources
+ * in that package.  Locations that do not support indexing (such as directories which can change at any time) are
+ * included for every package.  The locations returned for a package are always in class path order, so a lookup
+ * through the index finds the same resource as a search of the full class path.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class ResourceIndex {
+    private static final ResourceLocation[] NO_LOCATIONS = new ResourceLocation[0];
+
+    /**
+     * The empty index.
+     */
+    public static final ResourceIndex EMPTY = new ResourceIndex(NO_LOCATIONS);
+
+    private final ResourceLocation[] locations;
+    private final ResourceLocation[] unindexedLocations;
+    private final Map packageLocations;
+
+    /**
+     * Creates an index of the specified locations.  The package names of each location are only read once by the
+     * location, so rebuilding the index for a modified class path does not rescan any existing location.
+     * @param locations the class path in search order
+     */
+    public ResourceIndex(ResourceLocation[] locations) {
+        this.locations = locations;
+
+        // gather the package names of each location
+        Set[] locationPackages = new Set[locations.length];
+        Set allPackages = new LinkedHashSet();
+        for (int i = 0; i < locations.length; i++) {
+            if (locations[i] instanceof AbstractUrlResourceLocation) {
+                locationPackages[i] = ((AbstractUrlResourceLocation) locations[i]).getPackageNames();
+            }
+            if (locationPackages[i] != null) {
+                allPackages.addAll(locationPackages[i]);
+            }
+        }
+
+        // build the location list for each package maintaining the class path order
+        List unindexed = new ArrayList();
+        Map packageLists = new HashMap();
+        for (Iterator iterator = allPackages.iterator(); iterator.hasNext();) {
+            packageLists.put(iterator.next(), new ArrayList());
+        }
+        for (int i = 0; i < locations.length; i++) {
+            ResourceLocation location = locations[i];
+            if (locationPackages[i] == null) {
+                // this location may contain any package
+                unindexed.add(location);
+                for (Iterator iterator = packageLists.values().iterator(); iterator.hasNext();) {
+                    List packageList = (List) iterator.next();
+                    packageList.add(location);
+                }
+            } else {
+                for (Iterator iterator = locationPackages[i].iterator(); iterator.hasNext();) {
+                    List packageList = (List) packageLists.get(iterator.next());
+                    packageList.add(location);
+                }
+            }
+        }
+
+        unindexedLocations = (ResourceLocation[]) unindexed.toArray(new ResourceLocation[unindexed.size()]);
+        packageLocations = new HashMap(packageLists.size());
+        for (Iterator iterator = packageLists.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry entry = (Map.Entry) iterator.next();
+            List packageList = (List) entry.getValue();
+            packageLocations.put(entry.getKey(), packageList.toArray(new ResourceLocation[packageList.size()]));
+        }
+    }
+
+    /**
+     * Gets all locations in this index.
+     * @return the locations in class path order; must not be modified
+     */
+    public ResourceLocation[] getLocations() {
+        return locations;
+    }
+
+    /**
+     * Gets the locations that may contain the specified resource.
+     * @param resourceName the name of the resource
+     * @return the candidate locations in class path order; must not be modified
+     */
+    public ResourceLocation[] getLocations(String resourceName) {
+        ResourceLocation[] candidates = (ResourceLocation[]) packageLocations.get(getPackageName(resourceName));
+        if (candidates == null) {
+            return unindexedLocations;
+        }
+        return candidates;
+    }
+
+    /**
+     * Gets the name of the package (directory) containing the specified resource.  A trailing slash on the resource
+     * name is ignored, so a directory entry is in the package of its parent directory.
+     * @param resourceName the "/"-separated resource name
+     * @return the package name without a trailing slash, or "" for a resource in the root directory
+     */
+    public static String getPackageName(String resourceName) {
+        int end = resourceName.length();
+        if (end > 0 && resourceName.charAt(end - 1) == '/') {
+            end--;
+        }
+        int packageEnd = resourceName.lastIndexOf('/', end - 1);
+        if (packageEnd < 0) {
+            return "";
+        }
+        return resourceName.substring(0, packageEnd);
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * An open jar file and its index, shared by every {@link JarResourceLocation} for the same jar.  The jar is closed
+ * when the last location using it is closed.  Jars with a known index are not opened until they are first used, and
+ * are treated as unreadable if they changed on disk before that.
+ *
+ * @version $Rev$ $Date$
+ */
+final class SharedJarFile {
+    private final File file;
+    private final String poolKey;
+    private final long length;
+    private final long lastModified;
+    private volatile JarFile jarFile;
+    private boolean closed;
+    private int references = 1;
+    private Set packageNames;
+    private String manifestClassPath;
+    private boolean manifestClassPathLoaded;
+
+    /**
+     * Creates an unpooled shared jar for an open jar file.
+     * @param jarFile the open jar file
+     */
+    SharedJarFile(JarFile jarFile) {
+        this(null, new File(jarFile.getName()), jarFile);
+    }
+
+    SharedJarFile(String poolKey, File file, JarFile jarFile) {
+        this.poolKey = poolKey;
+        this.file = file;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+        this.jarFile = jarFile;
+    }
+
+    SharedJarFile(String poolKey, File file, Set packageNames, String manifestClassPath) {
+        this.poolKey = poolKey;
+        this.file = file;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+        this.packageNames = Collections.unmodifiableSet(new HashSet(packageNames));
+        this.manifestClassPath = manifestClassPath;
+        this.manifestClassPathLoaded = true;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the key of this jar in the {@link JarFilePool}.
+     * @return the pool key, or null if this jar is not pooled
+     */
+    String getPoolKey() {
+        return poolKey;
+    }
+
+    JarFile getJarFile() throws IOException {
+        JarFile jarFile = this.jarFile;
+        if (jarFile == null) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("Jar file is closed: " + file);
+                }
+                if (this.jarFile == null) {
+                    // the index came from the persistent cache; the jar may have been replaced since the class path
+                    // was built from it, and a lookup must not be answered from a stale index
+                    if (!isUnchanged()) {
+                        throw new IOException("Jar file changed since it was indexed: " + file);
+                    }
+                    this.jarFile = new JarFile(file);
+                }
+                jarFile = this.jarFile;
+            }
+        }
+        return jarFile;
+    }
+
+    Manifest getManifest() throws IOException {
+        return getJarFile().getManifest();
+    }
+
+    synchronized String getManifestClassPath() throws IOException {
+        if (!manifestClassPathLoaded) {
+            Manifest manifest = getManifest();
+            if (manifest != null) {
+                manifestClassPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            }
+            manifestClassPathLoaded = true;
+        }
+        return manifestClassPath;
+    }
+
+    synchronized Set getPackageNames() {
+        if (packageNames == null) {
+            Set names = new HashSet();
+            try {
+                for (Enumeration entries = getJarFile().entries(); entries.hasMoreElements();) {
+                    JarEntry jarEntry = (JarEntry) entries.nextElement();
+                    names.add(ResourceIndex.getPackageName(jarEntry.getName()));
+                }
+            } catch (IOException e) {
+                // can't happen, jars without an index are opened when they are created
+                throw new IllegalStateException("Jar file could not be opened: " + file);
+            }
+            packageNames = Collections.unmodifiableSet(names);
+        }
+        return packageNames;
+    }
+
+    /**
+     * Adds a reference to this jar.
+     * @return false if the jar has already been closed and can not be used anymore
+     */
+    synchronized boolean retain() {
+        if (closed) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * Removes a reference to this jar, and closes it if this was the last reference.
+     */
+    void release() {
+        synchronized (this) {
+            if (closed || --references > 0) {
+                return;
+            }
+            closed = true;
+            IoUtil.close(jarFile);
+        }
+        if (poolKey != null) {
+            JarFilePool.remove(this);
+        }
+    }
+
+    /**
+     * Checks if the file still has the size and modification time it had when this jar was created.
+     * @return true if the jar file has not changed
+     */
+    boolean isUnchanged() {
+        return file.length() == length && file.lastModified() == lastModified;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+}
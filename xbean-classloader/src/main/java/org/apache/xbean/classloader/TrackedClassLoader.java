@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+
+/**
+ * A class loader tracked by a {@link ClassLoaderLeakDetector}.  The reference is enqueued when the class loader has
+ * been collected.  The class loader holds this object to count the classes it defines, but this object never holds
+ * the class loader.
+ *
+ * @version $Rev$ $Date$
+ */
+final class TrackedClassLoader extends PhantomReference {
+    private final ClassLoaderLeakDetector detector;
+    private final String name;
+    private final String className;
+    private long classesDefined;
+    private long bytesDefined;
+    private long destroyTime;
+    private long destroyedAtGarbageCollection = -1;
+
+    TrackedClassLoader(ClassLoaderLeakDetector detector, ClassLoader classLoader, String name, ReferenceQueue queue) {
+        super(classLoader, queue);
+        this.detector = detector;
+        this.name = name;
+        this.className = classLoader.getClass().getName();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Counts a class defined by the class loader.
+     * @param size the size of the class file, or zero if it is not known
+     */
+    synchronized void classDefined(int size) {
+        classesDefined++;
+        bytesDefined += size;
+    }
+
+    synchronized long getClassesDefined() {
+        return classesDefined;
+    }
+
+    synchronized long getBytesDefined() {
+        return bytesDefined;
+    }
+
+    /**
+     * Marks the class loader destroyed; from now on it is expected to be collected.
+     */
+    void destroyed() {
+        detector.destroyed(this);
+    }
+
+    synchronized boolean isDestroyed() {
+        return destroyedAtGarbageCollection >= 0;
+    }
+
+    synchronized void setDestroyed(long garbageCollection) {
+        if (destroyedAtGarbageCollection < 0) {
+            destroyedAtGarbageCollection = garbageCollection;
+            destroyTime = System.currentTimeMillis();
+        }
+    }
+
+    synchronized ClassLoaderLeak toLeak(long garbageCollection) {
+        return new ClassLoaderLeak(name, className, classesDefined, bytesDefined, destroyTime, garbageCollection - destroyedAtGarbageCollection);
+    }
+
+    synchronized long getGarbageCollectionsSurvived(long garbageCollection) {
+        if (destroyedAtGarbageCollection < 0) {
+            return 0;
+        }
+        return garbageCollection - destroyedAtGarbageCollection;
+    }
+}
@@ -34,33 +34,101 @@ import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
-import java.util.jar.JarFile;
 
 /**
  * @version $Rev$ $Date$
  */
 public class UrlResourceFinder implements ResourceFinder {
+    /**
+     * The size in bytes of the largest jar entry kept in the content cache.
+     */
+    public static final int MAX_CACHED_RESOURCE_SIZE = 16 * 1024;
+
+    private static final File[] NO_FILES = new File[0];
+
     private final Object lock = new Object();
 
     private final LinkedHashSet urls = new LinkedHashSet();
     private final LinkedHashMap classPath = new LinkedHashMap();
     private final LinkedHashSet watchedFiles = new LinkedHashSet();
 
-    private boolean destroyed = false;
+    // Index of the class path and copy of the watched files used by the lookup methods, which do not hold the lock.
+    // These are never modified; they are replaced each time the class path is rebuilt.
+    private volatile ResourceIndex resourceIndex = ResourceIndex.EMPTY;
+    private volatile File[] watchedFilesSnapshot = NO_FILES;
+
+    private volatile boolean destroyed = false;
+
+    // set by checkWatchedFiles when a missing class path entry appears; the next lookup rebuilds the class path
+    private volatile boolean classPathDirty = false;
+
+    private final JarIndexCache indexCache;
+
+    // incremented whenever the class path changes
+    private final ClassPathVersion classPathVersion;
+
+    // locations handed over by a previous finder, which are used instead of opening the urls again
+    private final Map reusableLocations = new LinkedHashMap();
+
+    private volatile ClassLoaderListener classLoaderListener;
+
+    private volatile ResourceContentCache contentCache;
 
     public UrlResourceFinder() {
+        this.indexCache = null;
+        this.classPathVersion = new ClassPathVersion();
     }
 
     public UrlResourceFinder(URL[] urls) {
+        this.indexCache = null;
+        this.classPathVersion = new ClassPathVersion();
+        addUrls(urls);
+    }
+
+    /**
+     * Creates a finder which uses the specified cache to avoid opening and scanning jars it has seen before.
+     * @param indexCache the persistent jar index cache, or null to disable caching
+     */
+    public UrlResourceFinder(JarIndexCache indexCache) {
+        this.indexCache = indexCache;
+        this.classPathVersion = new ClassPathVersion();
+    }
+
+    /**
+     * Creates a finder which uses the specified cache to avoid opening and scanning jars it has seen before.
+     * @param urls the initial class path
+     * @param indexCache the persistent jar index cache, or null to disable caching
+     */
+    public UrlResourceFinder(URL[] urls, JarIndexCache indexCache) {
+        this.indexCache = indexCache;
+        this.classPathVersion = new ClassPathVersion();
         addUrls(urls);
     }
 
+    /**
+     * Creates the finder of a class loader, which increments the class path version of the class loader whenever the
+     * class path changes.
+     * @param indexCache the persistent jar index cache, or null to disable caching
+     * @param classPathVersion the class path version of the class loader
+     */
+    UrlResourceFinder(JarIndexCache indexCache, ClassPathVersion classPathVersion) {
+        this.indexCache = indexCache;
+        this.classPathVersion = classPathVersion;
+    }
+
     public void destroy() {
         synchronized (lock) {
             if (destroyed) {
                 return;
             }
             destroyed = true;
+            closeReusableLocations();
+            if (contentCache != null) {
+                contentCache.clear();
+            }
+            WatchedFileMonitor.unwatch(this);
+            resourceIndex = ResourceIndex.EMPTY;
+            watchedFilesSnapshot = NO_FILES;
             urls.clear();
             for (Iterator iterator = classPath.values().iterator(); iterator.hasNext();) {
                 ResourceLocation resourceLocation = (ResourceLocation) iterator.next();
@@ -70,44 +138,193 @@ public class UrlResourceFinder implements ResourceFinder {
         }
     }
 
-    public ResourceHandle getResource(String resourceName) {
+    /**
+     * Takes over the open locations of a previous finder, such as the finder of the class loader being replaced by a
+     * redeployment.  The urls added to this finder afterwards use these locations instead of opening and indexing the
+     * jars again, so only the jars that changed are opened.  A jar is only taken over if its size and modification
+     * time have not changed since the previous finder opened it; directories are always opened again.  This method
+     * must be called before the urls are added to this finder and before the previous finder is destroyed.  Locations
+     * which are not used by the next class path change are closed.
+     * @param previous the finder being replaced
+     */
+    public void reuseResourceLocations(UrlResourceFinder previous) {
+        if (previous == this) {
+            return;
+        }
+
+        List sharedLocations = new ArrayList();
+        synchronized (previous.lock) {
+            for (Iterator iterator = previous.classPath.values().iterator(); iterator.hasNext();) {
+                ResourceLocation sharedLocation = share((ResourceLocation) iterator.next());
+                if (sharedLocation != null) {
+                    sharedLocations.add(sharedLocation);
+                }
+            }
+        }
+
         synchronized (lock) {
-            if (destroyed) {
-                return null;
+            for (Iterator iterator = sharedLocations.iterator(); iterator.hasNext();) {
+                ResourceLocation resourceLocation = (ResourceLocation) iterator.next();
+                if (destroyed || reusableLocations.containsKey(resourceLocation.getCodeSource())) {
+                    resourceLocation.close();
+                } else {
+                    reusableLocations.put(resourceLocation.getCodeSource(), resourceLocation);
+                }
             }
-            for (Iterator iterator = getClassPath().entrySet().iterator(); iterator.hasNext();) {
-                Map.Entry entry = (Map.Entry) iterator.next();
-                ResourceLocation resourceLocation = (ResourceLocation) entry.getValue();
+        }
+    }
+
+    private static ResourceLocation share(ResourceLocation resourceLocation) {
+        if (resourceLocation instanceof JarResourceLocation) {
+            return ((JarResourceLocation) resourceLocation).share();
+        }
+        if (resourceLocation instanceof NestedJarResourceLocation) {
+            return ((NestedJarResourceLocation) resourceLocation).share();
+        }
+        return null;
+    }
+
+    private void closeReusableLocations() {
+        for (Iterator iterator = reusableLocations.values().iterator(); iterator.hasNext();) {
+            ResourceLocation resourceLocation = (ResourceLocation) iterator.next();
+            resourceLocation.close();
+        }
+        reusableLocations.clear();
+    }
+
+    /**
+     * Gets the maximum total size of the content cache.
+     * @return the maximum size in bytes, or zero if the content cache is disabled
+     */
+    public long getContentCacheSize() {
+        ResourceContentCache contentCache = this.contentCache;
+        if (contentCache == null) {
+            return 0;
+        }
+        return contentCache.getMaxSize();
+    }
+
+    /**
+     * Enables or disables the content cache.  When enabled, the content of jar entries up to
+     * {@link #MAX_CACHED_RESOURCE_SIZE} bytes, except class files, is kept in memory once read through a resource
+     * handle or url, so small resources which are read over and over again, such as service provider files, property
+     * files and schemas, are not inflated from the jar each time.  The least recently used entries are evicted when
+     * the total size exceeds the limit.  The cache is cleared when the class path changes and when this finder is
+     * destroyed.
+     * @param contentCacheSize the maximum total size of the cached content in bytes, or zero to disable the cache
+     */
+    public void setContentCacheSize(long contentCacheSize) {
+        if (contentCacheSize < 0) {
+            throw new IllegalArgumentException("contentCacheSize is negative: " + contentCacheSize);
+        }
+        synchronized (lock) {
+            if (contentCacheSize == 0) {
+                contentCache = null;
+            } else {
+                contentCache = new ResourceContentCache(contentCacheSize, MAX_CACHED_RESOURCE_SIZE);
+            }
+            applyContentCache();
+        }
+    }
+
+    ResourceContentCache getContentCache() {
+        return contentCache;
+    }
+
+    private void applyContentCache() {
+        for (Iterator iterator = classPath.values().iterator(); iterator.hasNext();) {
+            Object resourceLocation = iterator.next();
+            if (resourceLocation instanceof JarResourceLocation) {
+                ((JarResourceLocation) resourceLocation).setContentCache(contentCache);
+            }
+        }
+    }
+
+    /**
+     * Gets the listener notified of each class path entry checked by a lookup.
+     * @return the listener, or null if none is installed
+     */
+    public ClassLoaderListener getClassLoaderListener() {
+        return classLoaderListener;
+    }
+
+    /**
+     * Sets the listener notified of each class path entry checked by a lookup.
+     * @param classLoaderListener the listener, or null to remove the current listener
+     */
+    public void setClassLoaderListener(ClassLoaderListener classLoaderListener) {
+        this.classLoaderListener = classLoaderListener;
+    }
+
+    public ResourceHandle getResource(String resourceName) {
+        ResourceLocation[] classPath = getResourceIndex().getLocations(resourceName);
+        ClassLoaderListener listener = classLoaderListener;
+        try {
+            for (int i = 0; i < classPath.length; i++) {
+                ResourceLocation resourceLocation = classPath[i];
                 ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
-                if (resourceHandle != null && !resourceHandle.isDirectory()) {
+                boolean found = resourceHandle != null && !resourceHandle.isDirectory();
+                if (listener != null) {
+                    listener.resourceLocationLookup(resourceLocation.getCodeSource(), resourceName, found);
+                }
+                if (found) {
                     return resourceHandle;
                 }
             }
+        } catch (IllegalStateException e) {
+            // Jar file was closed... this means the resource finder was destroyed during the lookup
+            if (destroyed) {
+                return null;
+            }
+            throw e;
         }
         return null;
     }
 
     public URL findResource(String resourceName) {
-        synchronized (lock) {
+        ResourceLocation[] classPath = getResourceIndex().getLocations(resourceName);
+        ClassLoaderListener listener = classLoaderListener;
+        try {
+            for (int i = 0; i < classPath.length; i++) {
+                ResourceLocation resourceLocation = classPath[i];
+                URL url = getResourceUrl(resourceLocation, resourceName);
+                if (listener != null) {
+                    listener.resourceLocationLookup(resourceLocation.getCodeSource(), resourceName, url != null);
+                }
+                if (url != null) {
+                    return url;
+                }
+            }
+        } catch (IllegalStateException e) {
+            // Jar file was closed... this means the resource finder was destroyed during the lookup
             if (destroyed) {
                 return null;
             }
-            for (Iterator iterator = getClassPath().entrySet().iterator(); iterator.hasNext();) {
-                Map.Entry entry = (Map.Entry) iterator.next();
-                ResourceLocation resourceLocation = (ResourceLocation) entry.getValue();
-                ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
-                if (resourceHandle != null) {
-                    return resourceHandle.getUrl();
-                }
-            }
+            throw e;
         }
         return null;
     }
 
     public Enumeration findResources(String resourceName) {
-        synchronized (lock) {
-            return new ResourceEnumeration(new ArrayList(getClassPath().values()), resourceName);
+        return new ResourceEnumeration(Arrays.asList(getResourceIndex().getLocations(resourceName)), resourceName);
+    }
+
+    /**
+     * Gets the url of a resource in a location.  The locations of this package create the url without a resource
+     * handle; any other location is asked for the handle.
+     * @param resourceLocation the location to search
+     * @param resourceName the resource name
+     * @return the url of the resource, or null if the location does not contain the resource
+     */
+    static URL getResourceUrl(ResourceLocation resourceLocation, String resourceName) {
+        if (resourceLocation instanceof AbstractUrlResourceLocation) {
+            return ((AbstractUrlResourceLocation) resourceLocation).getResourceUrl(resourceName);
         }
+        ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
+        if (resourceHandle == null) {
+            return null;
+        }
+        return resourceHandle.getUrl();
     }
 
     public void addUrl(URL url) {
@@ -145,18 +362,41 @@ public class UrlResourceFinder implements ResourceFinder {
         }
     }
 
-    private LinkedHashMap getClassPath() {
-        assert Thread.holdsLock(lock): "This method can only be called while holding the lock";
-
-        for (Iterator iterator = watchedFiles.iterator(); iterator.hasNext();) {
-            File file = (File) iterator.next();
-            if (file.canRead()) {
-                rebuildClassPath();
-                break;
+    /**
+     * Checks if any of the missing file urls on the class path has appeared, in which case the class path is rebuilt
+     * on the next lookup.  The class path version is incremented right away, so class loaders drop the names they
+     * remembered as missing and search this finder again.  The missing files are checked periodically in the
+     * background; this method is only needed to pick up a new file immediately.
+     */
+    public void checkWatchedFiles() {
+        if (classPathDirty) {
+            // already signaled; the next lookup rebuilds the class path
+            return;
+        }
+        File[] watchedFiles = watchedFilesSnapshot;
+        for (int i = 0; i < watchedFiles.length; i++) {
+            if (watchedFiles[i].canRead()) {
+                classPathDirty = true;
+                classPathVersion.increment();
+                return;
             }
         }
+    }
 
-        return classPath;
+    /**
+     * Gets the index of the current class path.  This method does not acquire the lock unless one of the watched files
+     * has become readable, and the class path must be rebuilt.
+     * @return the index of the class path
+     */
+    private ResourceIndex getResourceIndex() {
+        if (classPathDirty) {
+            synchronized (lock) {
+                if (classPathDirty && !destroyed) {
+                    rebuildClassPath();
+                }
+            }
+        }
+        return resourceIndex;
     }
 
     /**
@@ -167,10 +407,24 @@ public class UrlResourceFinder implements ResourceFinder {
     private void rebuildClassPath() {
         assert Thread.holdsLock(lock): "This method can only be called while holding the lock";
 
-        // copy all of the existing locations into a temp map and clear the class path
+        // copy all of the existing locations, and the locations handed over by a previous finder, into a temp map and
+        // clear the class path
         Map existingJarFiles = new LinkedHashMap(classPath);
+        for (Iterator iterator = reusableLocations.values().iterator(); iterator.hasNext();) {
+            ResourceLocation resourceLocation = (ResourceLocation) iterator.next();
+            if (existingJarFiles.containsKey(resourceLocation.getCodeSource())) {
+                resourceLocation.close();
+            } else {
+                existingJarFiles.put(resourceLocation.getCodeSource(), resourceLocation);
+            }
+        }
+        reusableLocations.clear();
         classPath.clear();
 
+        // any file still missing will be added back to the watch list
+        watchedFiles.clear();
+        classPathDirty = false;
+
         LinkedList locationStack = new LinkedList(urls);
         try {
             while (!locationStack.isEmpty()) {
@@ -190,13 +444,13 @@ public class UrlResourceFinder implements ResourceFinder {
                         File file = cacheUrl(url);
                         resourceLocation = createResourceLocation(url, file);
                     } catch (FileNotFoundException e) {
-                        // if this is a file URL, the file doesn't exist yet... watch to see if it appears later
-                        if ("file".equals(url.getProtocol())) {
-                            File file = new File(url.getPath());
+                        // if this is a file URL, the file doesn't exist yet... watch to see if it appears later; for a
+                        // nested jar, watch the outer jar file
+                        File file = getWatchedFile(url);
+                        if (file != null) {
                             watchedFiles.add(file);
-                            continue;
-
                         }
+                        continue;
                     } catch (IOException ignored) {
                         // can't seem to open the file... this is most likely a bad jar file
                         // so don't keep a watch out for it because that would require lots of checking
@@ -217,6 +471,32 @@ public class UrlResourceFinder implements ResourceFinder {
             throw e;
         }
 
+        // a changed jar may be at the same url as before, so the cached content is no longer valid
+        if (contentCache != null) {
+            contentCache.clear();
+        }
+        applyContentCache();
+
+        // index and publish the new class path to the lookup methods; existing locations are not scanned again
+        ResourceLocation[] locations = (ResourceLocation[]) classPath.values().toArray(new ResourceLocation[classPath.size()]);
+        resourceIndex = new ResourceIndex(locations);
+        watchedFilesSnapshot = (File[]) watchedFiles.toArray(new File[watchedFiles.size()]);
+        classPathVersion.increment();
+
+        if (watchedFiles.isEmpty()) {
+            WatchedFileMonitor.unwatch(this);
+        } else {
+            WatchedFileMonitor.watch(this);
+        }
+
+        if (indexCache != null) {
+            try {
+                indexCache.save();
+            } catch (IOException ignored) {
+                // the cache is only an optimization
+            }
+        }
+
         for (Iterator iterator = existingJarFiles.values().iterator(); iterator.hasNext();) {
             ResourceLocation resourceLocation = (ResourceLocation) iterator.next();
             resourceLocation.close();
@@ -224,6 +504,14 @@ public class UrlResourceFinder implements ResourceFinder {
     }
 
     protected File cacheUrl(URL url) throws IOException {
+        if ("jar".equals(url.getProtocol())) {
+            // a jar nested in a local jar is served from the outer jar file; any other jar url is not supported
+            String entryName = getNestedEntryName(url);
+            if (entryName.length() == 0 || entryName.endsWith("/")) {
+                throw new Error("Only nested jar files are supported " + url);
+            }
+            return cacheUrl(getOuterJarUrl(url));
+        }
         if (!"file".equals(url.getProtocol())) {
             // download the jar
             throw new Error("Only local file jars are supported " + url);
@@ -248,27 +536,73 @@ public class UrlResourceFinder implements ResourceFinder {
         }
 
         ResourceLocation resourceLocation = null;
-        if (cacheFile.isDirectory()) {
+        if ("jar".equals(codeSource.getProtocol())) {
+            // the inner jar is read in place from the outer jar
+            String entryName = getNestedEntryName(codeSource);
+            if (entryName.length() == 0 || entryName.endsWith("/")) {
+                throw new IOException("Url does not refer to a nested jar: " + codeSource);
+            }
+            resourceLocation = new NestedJarResourceLocation(codeSource, cacheFile, entryName);
+        } else if (cacheFile.isDirectory()) {
             // DirectoryResourceLocation will only return "file" URLs within this directory
             // do not user the DirectoryResourceLocation for non file based urls
             resourceLocation = new DirectoryResourceLocation(cacheFile);
         } else {
-            resourceLocation = new JarResourceLocation(codeSource, new JarFile(cacheFile));
+            // jars are shared with every other finder using the same jar; an unchanged jar in the index cache is not
+            // even opened until it is used
+            resourceLocation = new JarResourceLocation(codeSource, JarFilePool.acquire(cacheFile, indexCache));
         }
         return resourceLocation;
     }
 
-    private List getManifestClassPath(ResourceLocation resourceLocation) {
-        try {
-            // get the manifest, if possible
-            Manifest manifest = resourceLocation.getManifest();
-            if (manifest == null) {
-                // some locations don't have a manifest
-                return Collections.EMPTY_LIST;
+    private static File getWatchedFile(URL url) {
+        if ("jar".equals(url.getProtocol())) {
+            try {
+                url = getOuterJarUrl(url);
+            } catch (MalformedURLException e) {
+                return null;
             }
+        }
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        return new File(url.getPath());
+    }
+
+    private static URL getOuterJarUrl(URL url) throws MalformedURLException {
+        String file = url.getFile();
+        int separator = file.indexOf("!/");
+        if (separator < 0) {
+            throw new MalformedURLException("Url does not contain a '!' character: " + url);
+        }
+        return new URL(file.substring(0, separator));
+    }
+
+    private static String getNestedEntryName(URL url) throws MalformedURLException {
+        String file = url.getFile();
+        int separator = file.indexOf("!/");
+        if (separator < 0) {
+            throw new MalformedURLException("Url does not contain a '!' character: " + url);
+        }
+        return file.substring(separator + 2);
+    }
 
+    private List getManifestClassPath(ResourceLocation resourceLocation) {
+        try {
             // get the class-path attribute, if possible
-            String manifestClassPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            String manifestClassPath;
+            if (resourceLocation instanceof JarResourceLocation) {
+                // jar locations remember the attribute, and may have it from the index cache
+                manifestClassPath = ((JarResourceLocation) resourceLocation).getManifestClassPath();
+            } else {
+                // get the manifest, if possible
+                Manifest manifest = resourceLocation.getManifest();
+                if (manifest == null) {
+                    // some locations don't have a manifest
+                    return Collections.EMPTY_LIST;
+                }
+                manifestClassPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            }
             if (manifestClassPath == null) {
                 return Collections.EMPTY_LIST;
             }
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Checks the missing class path entries of all {@link UrlResourceFinder}s from a single background timer, so the
+ * lookup methods of the finders never touch the file system to see if a missing entry has appeared.  The finders are
+ * held weakly, and the timer thread only runs while at least one finder has missing entries.
+ *
+ * @version $Rev$ $Date$
+ */
+final class WatchedFileMonitor {
+    /**
+     * Milliseconds between two checks of the watched files.
+     */
+    static final long CHECK_INTERVAL = 1000;
+
+    private static final List finders = new ArrayList();
+    private static Timer timer;
+
+    private WatchedFileMonitor() {
+    }
+
+    /**
+     * Starts checking the watched files of the finder.  Does nothing if the finder is already watched.
+     * @param finder the finder with missing class path entries
+     */
+    static synchronized void watch(UrlResourceFinder finder) {
+        for (Iterator iterator = finders.iterator(); iterator.hasNext();) {
+            if (((WeakReference) iterator.next()).get() == finder) {
+                return;
+            }
+        }
+        finders.add(new WeakReference(finder));
+
+        if (timer == null) {
+            timer = new Timer(true);
+            timer.schedule(new CheckTask(), CHECK_INTERVAL, CHECK_INTERVAL);
+        }
+    }
+
+    /**
+     * Stops checking the watched files of the finder.
+     * @param finder the finder which no longer has missing class path entries, or has been destroyed
+     */
+    static synchronized void unwatch(UrlResourceFinder finder) {
+        for (Iterator iterator = finders.iterator(); iterator.hasNext();) {
+            Object watched = ((WeakReference) iterator.next()).get();
+            if (watched == null || watched == finder) {
+                iterator.remove();
+            }
+        }
+        stopIfIdle();
+    }
+
+    private static synchronized UrlResourceFinder[] getFinders() {
+        List liveFinders = new ArrayList(finders.size());
+        for (Iterator iterator = finders.iterator(); iterator.hasNext();) {
+            Object finder = ((WeakReference) iterator.next()).get();
+            if (finder == null) {
+                iterator.remove();
+            } else {
+                liveFinders.add(finder);
+            }
+        }
+        stopIfIdle();
+        return (UrlResourceFinder[]) liveFinders.toArray(new UrlResourceFinder[liveFinders.size()]);
+    }
+
+    private static void stopIfIdle() {
+        if (finders.isEmpty() && timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    private static class CheckTask extends TimerTask {
+        public void run() {
+            // the timer thread inherited the context class loader of whichever thread created it; don't pin it
+            Thread.currentThread().setContextClassLoader(null);
+
+            UrlResourceFinder[] finders = getFinders();
+            for (int i = 0; i < finders.length; i++) {
+                try {
+                    finders[i].checkWatchedFiles();
+                } catch (RuntimeException ignored) {
+                    // keep checking the other finders
+                }
+            }
+        }
+    }
+}
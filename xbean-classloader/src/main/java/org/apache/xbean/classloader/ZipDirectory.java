@@ -0,0 +1,320 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A minimal reader for the central directory of a zip file, which gives the offset of every entry in the file.  This
+ * lets a jar stored inside another jar be read in place, without extracting it.  Multi disk and zip64 archives are
+ * not supported.  Every offset and length read from the file is checked against the size of the file, so a truncated
+ * or corrupt zip file fails with an IOException.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ZipDirectory {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_RECORD_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    // entry name -> Entry, in directory order
+    private final Map entries;
+
+    private ZipDirectory(Map entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the directory of the zip file open on the channel.  Only the end record and the central directory are read.
+     * @param channel the zip file
+     * @return the directory
+     * @throws IOException if the file can not be read or is not a supported zip file
+     */
+    static ZipDirectory read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int tailSize = (int) Math.min(size, END_RECORD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, size - tailSize, tailSize);
+        int endRecord = findEndRecord(tail);
+
+        long directoryOffset = getUnsignedInt(tail, endRecord + 16);
+        long directorySize = getUnsignedInt(tail, endRecord + 12);
+        checkRegion(directoryOffset, directorySize, size, "Invalid zip central directory");
+        if (directorySize > Integer.MAX_VALUE) {
+            throw new IOException("Zip central directory is too large");
+        }
+        ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+        return new ZipDirectory(readEntries(directory, getUnsignedShort(tail, endRecord + 10)));
+    }
+
+    /**
+     * Reads the directory of a zip file held in a buffer, such as a memory mapped region of a file.
+     * @param zip the whole zip file, from position 0 to the limit of the buffer
+     * @return the directory
+     * @throws IOException if the buffer does not contain a supported zip file
+     */
+    static ZipDirectory read(ByteBuffer zip) throws IOException {
+        zip = littleEndian(zip);
+        int tailSize = Math.min(zip.limit(), END_RECORD_SIZE + MAX_COMMENT_SIZE);
+        int endRecord = findEndRecord(slice(zip, zip.limit() - tailSize, tailSize)) + zip.limit() - tailSize;
+
+        long directoryOffset = getUnsignedInt(zip, endRecord + 16);
+        long directorySize = getUnsignedInt(zip, endRecord + 12);
+        checkRegion(directoryOffset, directorySize, zip.limit(), "Invalid zip central directory");
+        Map entries = readEntries(slice(zip, (int) directoryOffset, (int) directorySize), getUnsignedShort(zip, endRecord + 10));
+
+        // resolve the data offsets now, since the local headers are already in memory
+        for (Iterator iterator = entries.values().iterator(); iterator.hasNext();) {
+            Entry entry = (Entry) iterator.next();
+            entry.dataOffset = getDataOffset(zip, entry);
+        }
+        return new ZipDirectory(entries);
+    }
+
+    Entry getEntry(String name) {
+        return (Entry) entries.get(name);
+    }
+
+    Collection getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Gets the offset of the data of an entry in a zip file open on a channel.
+     * @param channel the zip file
+     * @param entry the entry
+     * @return the offset of the first byte of the entry data
+     * @throws IOException if the local header can not be read
+     */
+    static long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+        if (entry.dataOffset < 0) {
+            long size = channel.size();
+            checkRegion(entry.localHeaderOffset, LOCAL_HEADER_SIZE, size, "Invalid local header: " + entry.name);
+            ByteBuffer header = read(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+            long dataOffset = getDataOffset(header, 0, entry);
+            checkRegion(dataOffset, entry.compressedSize, size, "Entry data is outside of the zip file: " + entry.name);
+            entry.dataOffset = dataOffset;
+        }
+        return entry.dataOffset;
+    }
+
+    /**
+     * Reads the uncompressed data of an entry of a zip held in a buffer.
+     * @param zip the zip file the entry belongs to
+     * @param entry the entry
+     * @return the uncompressed data
+     * @throws IOException if the entry is corrupt or uses an unsupported compression method
+     */
+    static byte[] getBytes(ByteBuffer zip, Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE || entry.compressedSize > Integer.MAX_VALUE) {
+            throw new IOException("Entry is too large: " + entry.name);
+        }
+        if (entry.dataOffset < 0) {
+            throw new IOException("Entry data offset is unknown: " + entry.name);
+        }
+        checkRegion(entry.dataOffset, entry.compressedSize, zip.limit(), "Entry data is outside of the zip file: " + entry.name);
+        if (entry.method == ZipEntry.STORED && entry.size != entry.compressedSize) {
+            throw new IOException("Corrupt entry: " + entry.name);
+        }
+
+        ByteBuffer data = slice(zip, (int) entry.dataOffset, (int) entry.compressedSize);
+        byte[] compressed = new byte[(int) entry.compressedSize];
+        data.get(compressed);
+        if (entry.method == ZipEntry.STORED) {
+            return compressed;
+        }
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + ": " + entry.name);
+        }
+
+        byte[] bytes = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            // the nowrap inflater needs one extra dummy byte at the end of the input
+            byte[] input = new byte[compressed.length + 1];
+            System.arraycopy(compressed, 0, input, 0, compressed.length);
+            inflater.setInput(input);
+            int count = 0;
+            while (count < bytes.length) {
+                int read = inflater.inflate(bytes, count, bytes.length - count);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += read;
+            }
+            if (count != bytes.length) {
+                throw new IOException("Corrupt entry: " + entry.name);
+            }
+        } catch (DataFormatException e) {
+            throw (IOException) new IOException("Corrupt entry: " + entry.name).initCause(e);
+        } finally {
+            inflater.end();
+        }
+        return bytes;
+    }
+
+    private static int findEndRecord(ByteBuffer tail) throws IOException {
+        for (int i = tail.limit() - END_RECORD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_RECORD_SIGNATURE) {
+                if (getUnsignedShort(tail, i + 10) == 0xFFFF || getUnsignedInt(tail, i + 16) == 0xFFFFFFFFL) {
+                    throw new IOException("Zip64 archives are not supported");
+                }
+                return i;
+            }
+        }
+        throw new IOException("Not a zip file");
+    }
+
+    private static Map readEntries(ByteBuffer directory, int count) throws IOException {
+        Map entries = new LinkedHashMap(count * 4 / 3 + 1);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Invalid zip central directory");
+            }
+            int nameLength = getUnsignedShort(directory, position + 28);
+            int extraLength = getUnsignedShort(directory, position + 30);
+            int commentLength = getUnsignedShort(directory, position + 32);
+            checkRegion(position + CENTRAL_HEADER_SIZE, nameLength + extraLength + commentLength, directory.limit(), "Invalid zip central directory");
+
+            Entry entry = new Entry(getString(directory, position + CENTRAL_HEADER_SIZE, nameLength),
+                    getUnsignedShort(directory, position + 10),
+                    getUnsignedInt(directory, position + 20),
+                    getUnsignedInt(directory, position + 24),
+                    getUnsignedInt(directory, position + 42));
+            entries.put(entry.name, entry);
+
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private static long getDataOffset(ByteBuffer zip, Entry entry) throws IOException {
+        checkRegion(entry.localHeaderOffset, LOCAL_HEADER_SIZE, zip.limit(), "Invalid local header: " + entry.name);
+        long dataOffset = getDataOffset(zip, (int) entry.localHeaderOffset, entry);
+        checkRegion(dataOffset, entry.compressedSize, zip.limit(), "Entry data is outside of the zip file: " + entry.name);
+        return dataOffset;
+    }
+
+    /**
+     * Checks that a region read from the zip file lies within the first <code>size</code> bytes.
+     */
+    private static void checkRegion(long offset, long length, long size, String message) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new IOException(message);
+        }
+    }
+
+    private static long getDataOffset(ByteBuffer buffer, int headerPosition, Entry entry) throws IOException {
+        if (buffer.getInt(headerPosition) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local header: " + entry.name);
+        }
+        int nameLength = getUnsignedShort(buffer, headerPosition + 26);
+        int extraLength = getUnsignedShort(buffer, headerPosition + 28);
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return littleEndian(buffer);
+    }
+
+    static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(position + length);
+        slice.position(position);
+        return littleEndian(slice.slice());
+    }
+
+    private static ByteBuffer littleEndian(ByteBuffer buffer) {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int getUnsignedShort(ByteBuffer buffer, int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    private static long getUnsignedInt(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) & 0xFFFFFFFFL;
+    }
+
+    private static String getString(ByteBuffer buffer, int position, int length) throws UnsupportedEncodingException {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    static final class Entry {
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+        private volatile long dataOffset = -1;
+
+        private Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getMethod() {
+            return method;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getCompressedSize() {
+            return compressedSize;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+}
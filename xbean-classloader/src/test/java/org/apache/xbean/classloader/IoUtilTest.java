@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class IoUtilTest extends TestCase {
+    private static final byte[] CONTENT = createContent(10000);
+
+    public void testExpectedLength() throws Exception {
+        CloseTrackingInputStream in = new CloseTrackingInputStream(CONTENT);
+        assertTrue(Arrays.equals(CONTENT, IoUtil.getBytes(in, CONTENT.length)));
+        assertTrue(in.closed);
+    }
+
+    public void testShorterThanExpected() throws Exception {
+        CloseTrackingInputStream in = new CloseTrackingInputStream(CONTENT);
+        assertTrue(Arrays.equals(CONTENT, IoUtil.getBytes(in, CONTENT.length + 100)));
+        assertTrue(in.closed);
+
+        in = new CloseTrackingInputStream(new byte[0]);
+        assertEquals(0, IoUtil.getBytes(in, 10).length);
+        assertTrue(in.closed);
+    }
+
+    public void testLongerThanExpected() throws Exception {
+        CloseTrackingInputStream in = new CloseTrackingInputStream(CONTENT);
+        assertTrue(Arrays.equals(CONTENT, IoUtil.getBytes(in, 100)));
+        assertTrue(in.closed);
+
+        in = new CloseTrackingInputStream(CONTENT);
+        assertTrue(Arrays.equals(CONTENT, IoUtil.getBytes(in, 0)));
+        assertTrue(in.closed);
+    }
+
+    public void testUnknownLength() throws Exception {
+        CloseTrackingInputStream in = new CloseTrackingInputStream(CONTENT);
+        assertTrue(Arrays.equals(CONTENT, IoUtil.getBytes(in, -1)));
+        assertTrue(in.closed);
+    }
+
+    public void testPartialReads() throws Exception {
+        // a stream which returns at most 7 bytes per read must still be read completely
+        CloseTrackingInputStream in = new CloseTrackingInputStream(CONTENT) {
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        assertTrue(Arrays.equals(CONTENT, IoUtil.getBytes(in, CONTENT.length)));
+    }
+
+    public void testDirectoryResourceHandleBytes() throws Exception {
+        File directory = File.createTempFile("ioUtilTest", "");
+        directory.delete();
+        directory.mkdirs();
+        File file = new File(directory, "resource");
+        File empty = new File(directory, "empty");
+        try {
+            write(file, CONTENT);
+            write(empty, new byte[0]);
+
+            DirectoryResourceHandle handle = new DirectoryResourceHandle("resource", file, directory, null);
+            assertTrue(Arrays.equals(CONTENT, handle.getBytes()));
+
+            // the size is read when the bytes are read, not when the handle is created
+            byte[] longer = createContent(CONTENT.length * 2);
+            write(file, longer);
+            assertTrue(Arrays.equals(longer, handle.getBytes()));
+            write(file, new byte[] {1, 2, 3});
+            assertTrue(Arrays.equals(new byte[] {1, 2, 3}, handle.getBytes()));
+
+            handle = new DirectoryResourceHandle("empty", empty, directory, null);
+            assertEquals(0, handle.getBytes().length);
+        } finally {
+            file.delete();
+            empty.delete();
+            directory.delete();
+        }
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    private static class CloseTrackingInputStream extends ByteArrayInputStream {
+        private boolean closed;
+
+        private CloseTrackingInputStream(byte[] content) {
+            super(content);
+        }
+
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
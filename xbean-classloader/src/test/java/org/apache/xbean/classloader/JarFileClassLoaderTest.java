@@ -16,7 +16,13 @@
  */
 package org.apache.xbean.classloader;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.net.URL;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 /**
  * Test the JarFileClassLoader.
@@ -29,4 +35,69 @@ public class JarFileClassLoaderTest extends MultiParentClassLoaderTest {
     protected MultiParentClassLoader createClassLoader(String name, URL[] urls, ClassLoader[] parents) {
         return new JarFileClassLoader(name, urls, parents);
     }
+
+    public void testDefinePackage() throws Exception {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.IMPLEMENTATION_VERSION, "1.0");
+        Attributes packageAttributes = new Attributes();
+        packageAttributes.put(Attributes.Name.SEALED, "true");
+        manifest.getEntries().put("pkg/", packageAttributes);
+
+        File file = File.createTempFile("package-", ".jar");
+        JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(file), manifest);
+        jarOut.putNextEntry(new JarEntry("pkg/First.class"));
+        jarOut.write(createClass("pkg.First"));
+        jarOut.putNextEntry(new JarEntry("pkg/Second.class"));
+        jarOut.write(createClass("pkg.Second"));
+        jarOut.close();
+
+        JarFileClassLoader classLoader = new JarFileClassLoader("package", new URL[]{file.toURL()});
+        try {
+            // the second class uses the package defined for the first one
+            Package pkg = classLoader.loadClass("pkg.First").getPackage();
+            assertSame(pkg, classLoader.loadClass("pkg.Second").getPackage());
+
+            // the main attributes are inherited and the package section is applied
+            assertEquals("1.0", pkg.getImplementationVersion());
+            assertTrue(pkg.isSealed(file.toURL()));
+        } finally {
+            classLoader.destroy();
+            file.delete();
+        }
+    }
+
+    public void testMissingCacheWatchedFile() throws Exception {
+        File file = File.createTempFile("watched-", ".jar");
+        file.delete();
+        JarFileClassLoader classLoader = new JarFileClassLoader("watched", new URL[]{file.toURL()});
+        classLoader.setMissingCacheSize(100);
+        try {
+            try {
+                classLoader.loadClass("pkg.Watched");
+                fail("loadClass should have thrown a ClassNotFoundException");
+            } catch (ClassNotFoundException expected) {
+            }
+
+            // the jar appears; the background monitor invalidates the remembered missing name
+            JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(file));
+            jarOut.putNextEntry(new JarEntry("pkg/Watched.class"));
+            jarOut.write(createClass("pkg.Watched"));
+            jarOut.close();
+
+            Class clazz = null;
+            for (int i = 0; i < 50 && clazz == null; i++) {
+                Thread.sleep(WatchedFileMonitor.CHECK_INTERVAL / 5);
+                try {
+                    clazz = classLoader.loadClass("pkg.Watched");
+                } catch (ClassNotFoundException notYet) {
+                }
+            }
+            assertNotNull(clazz);
+            assertSame(classLoader, clazz.getClassLoader());
+        } finally {
+            classLoader.destroy();
+            file.delete();
+        }
+    }
 }
@@ -20,9 +20,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -146,6 +149,319 @@ public class MultiParentClassLoaderTest extends TestCase {
         }
     }
 
+    /**
+     * Test that an installed ClassLoaderStatistics sees the local lookups and the parent delegations.
+     * @throws Exception if a problem occurs
+     */
+    public void testClassLoaderStatistics() throws Exception {
+        ClassLoaderStatistics statistics = new ClassLoaderStatistics();
+        classLoader.setClassLoaderListener(statistics);
+        assertSame(statistics, classLoader.getClassLoaderListener());
+
+        // the second parent has the class
+        classLoader.loadClass(CLASS_NAME + 1);
+        assertEquals(0, statistics.getLocalLookups());
+        assertEquals(2, statistics.getParentDelegations());
+        assertEquals(1, statistics.getParentDelegationMisses());
+
+        // asks all three parents before finding the class locally; defining the class also delegates the loading
+        // of its super types, which the first parent finds
+        classLoader.loadClass(CLASS_NAME + 33);
+        assertEquals(1, statistics.getLocalLookups());
+        assertEquals(0, statistics.getLocalLookupMisses());
+        assertEquals(4, statistics.getParentDelegationMisses());
+        assertTrue(statistics.getParentDelegations() >= 5);
+
+        long[] histogram = statistics.getParentLookupLatencyHistogram();
+        assertEquals(statistics.getLatencyBuckets().length, histogram.length);
+        long total = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            total += histogram[i];
+        }
+        assertEquals(statistics.getParentDelegations(), total);
+
+        if (classLoader instanceof JarFileClassLoader) {
+            assertEquals(1, statistics.getClassesDefined());
+            assertTrue(statistics.getBytesDefined() > 0);
+            assertEquals(1, statistics.getResourceLocationHits(myFile.toURL()));
+        }
+
+        // no more events once the listener is removed
+        classLoader.setClassLoaderListener(null);
+        try {
+            classLoader.loadClass(NON_EXISTANT_CLASS);
+            fail("loadClass should have thrown a ClassNotFoundException");
+        } catch (ClassNotFoundException expected) {
+        }
+        assertEquals(total, statistics.getParentDelegations());
+
+        statistics.reset();
+        assertEquals(0, statistics.getParentDelegations());
+        assertEquals(0, statistics.getResourceLocationStatistics().length);
+    }
+
+    /**
+     * Test that the classes recorded in one class loader are preloaded into a new class loader.
+     * @throws Exception if a problem occurs
+     */
+    public void testPackageRouting() throws Exception {
+        assertFalse(classLoader.isPackageRoutingEnabled());
+        classLoader.setPackageRoutingEnabled(true);
+        assertTrue(classLoader.isPackageRoutingEnabled());
+        ClassLoaderStatistics statistics = new ClassLoaderStatistics();
+        classLoader.setClassLoaderListener(statistics);
+
+        // the third parent supplies the first class of the package
+        assertSame(parents[2], classLoader.loadClass(CLASS_NAME + 2).getClassLoader());
+        assertEquals(2, statistics.getParentDelegationMisses());
+
+        // every parent has this class, but it is loaded from the parent that supplied the package
+        statistics.reset();
+        assertSame(parents[2], classLoader.loadClass(CLASS_NAME).getClassLoader());
+        assertEquals(1, statistics.getParentDelegations());
+        assertEquals(0, statistics.getParentDelegationMisses());
+
+        // a class missing from the routed parent is still found
+        assertSame(parents[0], classLoader.loadClass(CLASS_NAME + 0).getClassLoader());
+
+        // the routes are forgotten when the class path changes
+        MultiParentClassLoader newClassLoader = createClassLoader(NAME, new URL[]{myFile.toURL()}, parents);
+        newClassLoader.setPackageRoutingEnabled(true);
+        assertSame(parents[2], newClassLoader.loadClass(CLASS_NAME + 2).getClassLoader());
+        newClassLoader.addURL(new File(myFile.getParentFile(), "missing-" + System.identityHashCode(this) + ".jar").toURL());
+        assertSame(parents[0], newClassLoader.loadClass(CLASS_NAME).getClassLoader());
+        newClassLoader.destroy();
+    }
+
+    /**
+     * Test a class that is already loaded is returned without taking the class lock map of the class loader.
+     * @throws Exception if a problem occurs
+     */
+    public void testLoadedClassWithoutLock() throws Exception {
+        final Class clazz = classLoader.loadClass(CLASS_NAME + 33);
+        Field field = MultiParentClassLoader.class.getDeclaredField("classLocks");
+        field.setAccessible(true);
+        final Object classLocks = field.get(classLoader);
+
+        final Object[] result = new Object[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    result[0] = classLoader.loadClass(CLASS_NAME + 33);
+                } catch (Throwable e) {
+                    result[0] = e;
+                }
+            }
+        };
+        boolean finished;
+        synchronized (classLocks) {
+            thread.start();
+            thread.join(10000);
+            finished = !thread.isAlive();
+        }
+        thread.join();
+        assertTrue("loadClass waited for the class lock map", finished);
+        assertSame(clazz, result[0]);
+    }
+
+    /**
+     * Test the caches are only cleared by changes to the class path of the class loader and its ancestors.
+     * @throws Exception if a problem occurs
+     */
+    public void testCacheInvalidationScope() throws Exception {
+        classLoader.setPackageRoutingEnabled(true);
+        ClassLoaderStatistics statistics = new ClassLoaderStatistics();
+        classLoader.setClassLoaderListener(statistics);
+        assertSame(parents[2], classLoader.loadClass(CLASS_NAME + 2).getClassLoader());
+
+        // creating and changing an unrelated class loader keeps the routes
+        MultiParentClassLoader otherClassLoader = createClassLoader("other", new URL[]{files[0].toURL()}, parents);
+        otherClassLoader.addURL(files[1].toURL());
+        statistics.reset();
+        assertSame(parents[2], classLoader.loadClass(CLASS_NAME).getClassLoader());
+        assertEquals(0, statistics.getParentDelegationMisses());
+        otherClassLoader.destroy();
+
+        // a change in a parent clears the names the child remembered as missing
+        File newFile = createJarFile(44);
+        MultiParentClassLoader parent = createClassLoader("parent", new URL[0], parents);
+        MultiParentClassLoader child = createClassLoader("child", new URL[]{myFile.toURL()}, new ClassLoader[]{parent});
+        child.setMissingCacheSize(100);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    child.loadClass(CLASS_NAME + 44);
+                    fail("loadClass should have thrown a ClassNotFoundException");
+                } catch (ClassNotFoundException expected) {
+                }
+            }
+            parent.addURL(newFile.toURL());
+            assertSame(parent, child.loadClass(CLASS_NAME + 44).getClassLoader());
+        } finally {
+            child.destroy();
+            parent.destroy();
+            newFile.delete();
+        }
+    }
+
+    public void testLeakDetector() throws Exception {
+        ClassLoaderLeakDetector leakDetector = ClassLoaderUtil.getLeakDetector();
+        int threshold = leakDetector.getGarbageCollectionThreshold();
+        leakDetector.setGarbageCollectionThreshold(0);
+        try {
+            String name = "leak test " + System.identityHashCode(this);
+            MultiParentClassLoader leakedClassLoader = createClassLoader(name, new URL[]{myFile.toURL()}, parents);
+            leakedClassLoader.loadClass(CLASS_NAME + 33);
+            assertNull(findLeak(leakDetector, name));
+
+            // the destroyed class loader is still referenced, so it is reported after the next garbage collection
+            leakedClassLoader.destroy();
+            assertNotNull(leakedClassLoader);
+            collectGarbage(leakDetector);
+            ClassLoaderLeak leak = findLeak(leakDetector, name);
+            assertNotNull(leak);
+            assertEquals(1, leak.getClassesDefined());
+            assertEquals(leakedClassLoader.getClass().getName(), leak.getClassName());
+            assertTrue(leak.getGarbageCollections() > 0);
+
+            // once the class loader is collected it is no longer tracked
+            int trackedClassLoaders = leakDetector.getTrackedClassLoaders();
+            leakedClassLoader = null;
+            for (int i = 0; i < 10 && findLeak(leakDetector, name) != null; i++) {
+                collectGarbage(leakDetector);
+            }
+            assertNull(findLeak(leakDetector, name));
+            assertTrue(leakDetector.getTrackedClassLoaders() < trackedClassLoaders);
+        } finally {
+            leakDetector.setGarbageCollectionThreshold(threshold);
+        }
+    }
+
+    private static ClassLoaderLeak findLeak(ClassLoaderLeakDetector leakDetector, String name) {
+        ClassLoaderLeak[] leaks = leakDetector.getClassLoaderLeaks();
+        for (int i = 0; i < leaks.length; i++) {
+            if (leaks[i].getName().equals(name)) {
+                return leaks[i];
+            }
+        }
+        return null;
+    }
+
+    private static void collectGarbage(ClassLoaderLeakDetector leakDetector) throws InterruptedException {
+        long garbageCollections = leakDetector.getGarbageCollections();
+        for (int i = 0; i < 50 && leakDetector.getGarbageCollections() == garbageCollections; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+    }
+
+    public void testRecordAndPreload() throws Exception {
+        ClassDefinitionRecorder recorder = new ClassDefinitionRecorder();
+        classLoader.setClassLoaderListener(recorder);
+        classLoader.loadClass(CLASS_NAME + 33);
+        classLoader.loadClass(CLASS_NAME + 1);
+
+        // only classes defined by the class loader itself are recorded
+        List classNames = Arrays.asList(new String[] {CLASS_NAME + 33});
+        if (classLoader instanceof JarFileClassLoader) {
+            assertEquals(classNames, recorder.getClassNames());
+        }
+
+        File classList = File.createTempFile("classes", ".lst");
+        try {
+            ClassDefinitionRecorder listRecorder = new ClassDefinitionRecorder();
+            listRecorder.classDefined(CLASS_NAME + 33, myFile.toURL(), 0);
+            listRecorder.classDefined(NON_EXISTANT_CLASS, myFile.toURL(), 0);
+            listRecorder.save(classList);
+            classNames = ClassDefinitionRecorder.load(classList);
+        } finally {
+            classList.delete();
+        }
+        assertEquals(Arrays.asList(new String[] {CLASS_NAME + 33, NON_EXISTANT_CLASS}), classNames);
+
+        MultiParentClassLoader newClassLoader = createClassLoader(NAME, new URL[]{myFile.toURL()}, parents);
+        ClassPreloader preloader = new ClassPreloader(newClassLoader, classNames);
+        preloader.start(2);
+        preloader.waitForCompletion();
+        assertEquals(1, preloader.getLoadedCount());
+        assertEquals(1, preloader.getFailedCount());
+
+        Class clazz = newClassLoader.loadClass(CLASS_NAME + 33);
+        assertSame(newClassLoader, clazz.getClassLoader());
+        newClassLoader.destroy();
+    }
+
+    /**
+     * Test that many threads loading the same classes at the same time all get the same class instances.
+     * @throws Exception if a problem occurs
+     */
+    public void testConcurrentLoadClass() throws Exception {
+        final String[] classNames = new String[] {CLASS_NAME + 33, CLASS_NAME, CLASS_NAME + 0, CLASS_NAME + 2};
+        final Class[][] loadedClasses = new Class[10][];
+        final Throwable[] failures = new Throwable[loadedClasses.length];
+        Thread[] threads = new Thread[loadedClasses.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int threadIndex = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        Class[] classes = new Class[classNames.length];
+                        for (int j = 0; j < classNames.length; j++) {
+                            classes[j] = classLoader.loadClass(classNames[j]);
+                        }
+                        loadedClasses[threadIndex] = classes;
+                    } catch (Throwable e) {
+                        failures[threadIndex] = e;
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            assertNull("Thread " + i + " failed: " + failures[i], failures[i]);
+            for (int j = 0; j < classNames.length; j++) {
+                assertSame(loadedClasses[0][j], loadedClasses[i][j]);
+            }
+        }
+        assertEquals(classLoader, loadedClasses[0][0].getClassLoader());
+    }
+
+    /**
+     * Test that classes and resources which were missing are found after a url containing them is added.
+     * @throws Exception if a problem occurs
+     */
+    public void testMissingCacheInvalidation() throws Exception {
+        File newFile = createJarFile(44);
+        classLoader.setMissingCacheSize(100);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    classLoader.loadClass(CLASS_NAME + 44);
+                    fail("loadClass should have thrown a ClassNotFoundException");
+                } catch (ClassNotFoundException e) {
+                    // expected
+                }
+                assertNull(classLoader.getResource(ENTRY_NAME + 44));
+            }
+
+            classLoader.addURL(newFile.toURL());
+
+            Class clazz = classLoader.loadClass(CLASS_NAME + 44);
+            assertNotNull(clazz);
+            assertEquals(classLoader, clazz.getClassLoader());
+            assertURLContains("Should have found value from the new file", ENTRY_VALUE + 44 + ENTRY_VALUE, classLoader.getResource(ENTRY_NAME + 44));
+        } finally {
+            classLoader.destroy();
+            newFile.delete();
+        }
+    }
+
     /**
      * Test getResourceAsStream loads in preference of the parents, in order, and then the local urls.
      * @throws Exception if a problem occurs
@@ -219,6 +535,70 @@ public class MultiParentClassLoaderTest extends TestCase {
         assertURLContains("Should have found value from my file", ENTRY_VALUE + 33, resource);
     }
 
+    /**
+     * Test an IOException from a parent reaches the caller of getResources.
+     * @throws Exception if a problem occurs
+     */
+    public void testGetResourcesParentFailure() throws Exception {
+        ClassLoader failingParent = new URLClassLoader(new URL[0]) {
+            public Enumeration getResources(String name) throws IOException {
+                throw new IOException("expected");
+            }
+        };
+        MultiParentClassLoader loader = createClassLoader(NAME, new URL[]{myFile.toURL()}, new ClassLoader[]{parents[0], failingParent});
+        try {
+            loader.getResources(ENTRY_NAME);
+            fail("getResources should have thrown an IOException");
+        } catch (IOException expected) {
+            assertEquals("expected", expected.getMessage());
+        } finally {
+            loader.destroy();
+        }
+    }
+
+    /**
+     * Test getResources only reads the resources of a parent when the enumeration reaches it, and returns each url
+     * only once.
+     * @throws Exception if a problem occurs
+     */
+    public void testGetResourcesLazyAndUnique() throws Exception {
+        final int[] searches = new int[1];
+        ClassLoader countingParent = new URLClassLoader(new URL[]{files[1].toURL()}) {
+            public Enumeration getResources(String name) throws IOException {
+                final Enumeration resources = super.getResources(name);
+                return new Enumeration() {
+                    public boolean hasMoreElements() {
+                        searches[0]++;
+                        return resources.hasMoreElements();
+                    }
+
+                    public Object nextElement() {
+                        return resources.nextElement();
+                    }
+                };
+            }
+        };
+        MultiParentClassLoader loader = createClassLoader(NAME, new URL[]{myFile.toURL()}, new ClassLoader[]{parents[0], parents[0], countingParent});
+        try {
+            Enumeration resources = loader.getResources(ENTRY_NAME);
+
+            URL resource = (URL) resources.nextElement();
+            assertURLContains("Should have found value from first parent", ENTRY_VALUE + 0, resource);
+            assertEquals(0, searches[0]);
+
+            // the second parent returns the same url, so the next url is from the third parent
+            resource = (URL) resources.nextElement();
+            assertURLContains("Should have found value from third parent", ENTRY_VALUE + 1, resource);
+            assertTrue(searches[0] > 0);
+
+            resource = (URL) resources.nextElement();
+            assertURLContains("Should have found value from my file", ENTRY_VALUE + 33, resource);
+            assertFalse(resources.hasMoreElements());
+        } finally {
+            loader.destroy();
+        }
+    }
+
     /**
      * Test getResources returns an empty enumeration when attempt is made to loade a non-existant resource.
      * @throws Exception if a problem occurs
@@ -319,7 +699,7 @@ public class MultiParentClassLoaderTest extends TestCase {
         return file;
     }
 
-    private static byte[] createClass(final String name) {
+    static byte[] createClass(final String name) {
         Enhancer enhancer = new Enhancer();
         enhancer.setNamingPolicy(new NamingPolicy() {
             public String getClassName(String prefix, String source, Object key, Predicate names) {
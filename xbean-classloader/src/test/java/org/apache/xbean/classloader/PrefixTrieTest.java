@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.classloader;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class PrefixTrieTest extends TestCase {
+    public void testEmpty() throws Exception {
+        PrefixTrie trie = new PrefixTrie(new String[0]);
+        assertFalse(trie.matchesPrefixOf(""));
+        assertFalse(trie.matchesPrefixOf("org.apache.Foo"));
+    }
+
+    public void testEmptyPrefixMatchesEverything() throws Exception {
+        PrefixTrie trie = new PrefixTrie(new String[] {""});
+        assertTrue(trie.matchesPrefixOf(""));
+        assertTrue(trie.matchesPrefixOf("org.apache.Foo"));
+    }
+
+    public void testMatchesPrefixOf() throws Exception {
+        String[] prefixes = new String[] {"org.apache.commons.logging.", "javax.", "org.apache.xbean.Foo", "org.apache.xbean.F", "com.acme"};
+        PrefixTrie trie = new PrefixTrie(prefixes);
+
+        String[] names = new String[] {
+                "",
+                "javax",
+                "javax.",
+                "javax.management.MBeanServer",
+                "java.lang.String",
+                "org.apache.commons.logging.Log",
+                "org.apache.commons.logging",
+                "org.apache.commons.lang.StringUtils",
+                "org.apache.xbean.Foo",
+                "org.apache.xbean.FooBar",
+                "org.apache.xbean.Bar",
+                "org.apache.xbean.F",
+                "com.acme",
+                "com.acme.Widget",
+                "com.ac",
+        };
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            assertEquals(name, startsWithAny(name, prefixes), trie.matchesPrefixOf(name));
+        }
+    }
+
+    private static boolean startsWithAny(String name, String[] prefixes) {
+        for (int i = 0; i < prefixes.length; i++) {
+            if (name.startsWith(prefixes[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
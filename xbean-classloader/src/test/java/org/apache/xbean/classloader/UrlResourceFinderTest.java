@@ -19,13 +19,16 @@ package org.apache.xbean.classloader;
 import java.net.URL;
 import java.net.MalformedURLException;
 import java.util.Enumeration;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.jar.Attributes;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 
@@ -149,6 +152,26 @@ public class UrlResourceFinderTest extends TestCase {
         assertEquals(manifest, resource.getManifest());
     }
 
+    public void testResourceProbing() throws Exception {
+        AbstractUrlResourceLocation directory = new DirectoryResourceLocation(new File(basedir, "src/test-data/resourceFinderTest/jar1/"));
+        AbstractUrlResourceLocation jar = new JarResourceLocation(jarFile.toURL(), new JarFile(jarFile));
+        try {
+            assertNull(directory.getResourceUrl("missing"));
+            assertNull(jar.getResourceUrl("missing"));
+            assertEquals("resource1", toString(directory.getResourceUrl("resource").openStream()));
+            assertEquals("resource3", toString(jar.getResourceUrl("resource").openStream()));
+
+            // the url of a handle is the same as the url from the location
+            ResourceHandle resourceHandle = jar.getResourceHandle("resource");
+            assertEquals(jar.getResourceUrl("resource").toExternalForm(), resourceHandle.getUrl().toExternalForm());
+            assertSame(resourceHandle.getUrl(), resourceHandle.getUrl());
+            assertSame(directory.getCodeSource(), directory.getResourceHandle("resource").getCodeSourceUrl());
+        } finally {
+            directory.close();
+            jar.close();
+        }
+    }
+
     public void testAddURL() throws Exception {
         URL jar1 = new File(basedir, "src/test-data/resourceFinderTest/jar1/").toURL();
         UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{jar1});
@@ -240,6 +263,387 @@ public class UrlResourceFinderTest extends TestCase {
         assertFalse(enumeration.hasMoreElements());
     }
 
+    /**
+     * Resources are found through the class path index in class path order, for a mix of jars and directories.
+     *
+     * @throws Exception
+     */
+    public void testIndexedLookup() throws Exception {
+        URL jar1 = new File(basedir, "src/test-data/resourceFinderTest/jar1/").toURL();
+        UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{jarFile.toURL(), jar1, alternateJarFile.toURL()});
+
+        // resources only in one location
+        assertEquals("jar3", new String(resourceFinder.getResource("jar3").getBytes()));
+        assertEquals("jar4", toString(resourceFinder.findResource("jar4").openStream()));
+
+        // shared resource is found in class path order
+        assertEquals("resource3", new String(resourceFinder.getResource("resource").getBytes()));
+        Enumeration enumeration = resourceFinder.findResources("resource");
+        assertEquals("resource3", toString(((URL) enumeration.nextElement()).openStream()));
+        assertEquals("resource1", toString(((URL) enumeration.nextElement()).openStream()));
+        assertEquals("resource4", toString(((URL) enumeration.nextElement()).openStream()));
+        assertFalse(enumeration.hasMoreElements());
+
+        // unknown packages are only searched in the directory
+        assertNull(resourceFinder.getResource("unknown/package/resource"));
+        assertNull(resourceFinder.findResource("unknown/package/resource"));
+        assertFalse(resourceFinder.findResources("unknown/package/resource").hasMoreElements());
+
+        resourceFinder.destroy();
+    }
+
+    public void testIndexCache() throws Exception {
+        File cacheFile = new File(basedir, "target/jarIndexCache.bin");
+        cacheFile.delete();
+        long lastModified = jarFile.lastModified();
+        try {
+            // first finder indexes the jar and writes the cache
+            JarIndexCache indexCache = new JarIndexCache(cacheFile);
+            assertNull(indexCache.getSharedJarFile("test", jarFile));
+            UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{jarFile.toURL()}, indexCache);
+            assertEquals("resource3", new String(resourceFinder.getResource("resource").getBytes()));
+            resourceFinder.destroy();
+            assertTrue(cacheFile.isFile());
+
+            // a new cache reads the index from disk
+            indexCache = new JarIndexCache(cacheFile);
+            SharedJarFile sharedJarFile = indexCache.getSharedJarFile("test", jarFile);
+            assertNotNull(sharedJarFile);
+            assertTrue(sharedJarFile.getPackageNames().contains(""));
+            assertTrue(sharedJarFile.getPackageNames().contains("META-INF"));
+            assertEquals(2, sharedJarFile.getPackageNames().size());
+            assertNull(sharedJarFile.getManifestClassPath());
+            sharedJarFile.release();
+
+            // a finder using the cached index finds the resources
+            resourceFinder = new UrlResourceFinder(new URL[]{jarFile.toURL()}, indexCache);
+            assertEquals("resource3", new String(resourceFinder.getResource("resource").getBytes()));
+            assertEquals("jar3", toString(resourceFinder.findResource("jar3").openStream()));
+            assertNull(resourceFinder.getResource("unknown/package/resource"));
+            resourceFinder.destroy();
+
+            // a jar that changes after the finder was built, but before it is opened, is not served with the old index
+            resourceFinder = new UrlResourceFinder(new URL[]{jarFile.toURL()}, indexCache);
+            jarFile.setLastModified(lastModified - 10000);
+            assertNull(resourceFinder.getResource("resource"));
+            assertNull(resourceFinder.findResource("jar3"));
+            resourceFinder.destroy();
+
+            // a changed jar is not served from the cache
+            assertNull(indexCache.getSharedJarFile("test", jarFile));
+        } finally {
+            jarFile.setLastModified(lastModified);
+            cacheFile.delete();
+        }
+    }
+
+    public void testSharedJarFiles() throws Exception {
+        UrlResourceFinder first = new UrlResourceFinder(new URL[]{jarFile.toURL()});
+        UrlResourceFinder second = new UrlResourceFinder(new URL[]{jarFile.toURL()});
+        assertEquals("resource3", new String(first.getResource("resource").getBytes()));
+        assertEquals("resource3", new String(second.getResource("resource").getBytes()));
+
+        // both finders use the pooled jar
+        int pooledJars = JarFilePool.size();
+        SharedJarFile sharedJarFile = JarFilePool.acquire(jarFile, null);
+        sharedJarFile.release();
+        assertEquals(pooledJars, JarFilePool.size());
+
+        // the jar stays open until the last finder is destroyed
+        first.destroy();
+        assertNull(first.getResource("resource"));
+        assertEquals("resource3", new String(second.getResource("resource").getBytes()));
+        assertFalse(sharedJarFile.isClosed());
+
+        second.destroy();
+        assertTrue(sharedJarFile.isClosed());
+
+        // a new finder opens the jar again
+        UrlResourceFinder third = new UrlResourceFinder(new URL[]{jarFile.toURL()});
+        assertEquals("resource3", new String(third.getResource("resource").getBytes()));
+        third.destroy();
+    }
+
+    public void testReuseResourceLocations() throws Exception {
+        URL[] urls = new URL[]{jarFile.toURL(), alternateJarFile.toURL()};
+        UrlResourceFinder previous = new UrlResourceFinder(urls);
+        assertEquals("jar4", new String(previous.getResource("jar4").getBytes()));
+        SharedJarFile sharedJarFile = JarFilePool.acquire(jarFile, null);
+        sharedJarFile.release();
+
+        // the alternate jar changes before the redeployment
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(alternateJarFile), manifest);
+        jarOutputStream.putNextEntry(new ZipEntry("jar5"));
+        jarOutputStream.write("jar5".getBytes());
+        IoUtil.close(jarOutputStream);
+        alternateJarFile.setLastModified(alternateJarFile.lastModified() + 10000);
+
+        // the unchanged jar stays open even though the previous finder is destroyed before the urls are added
+        UrlResourceFinder resourceFinder = new UrlResourceFinder();
+        resourceFinder.reuseResourceLocations(previous);
+        previous.destroy();
+        resourceFinder.addUrls(urls);
+        try {
+            assertFalse(sharedJarFile.isClosed());
+            SharedJarFile reused = JarFilePool.acquire(jarFile, null);
+            reused.release();
+            assertSame(sharedJarFile, reused);
+            assertEquals("jar3", new String(resourceFinder.getResource("jar3").getBytes()));
+
+            // the changed jar was opened again
+            assertNull(resourceFinder.getResource("jar4"));
+            assertEquals("jar5", new String(resourceFinder.getResource("jar5").getBytes()));
+        } finally {
+            resourceFinder.destroy();
+        }
+        assertTrue(sharedJarFile.isClosed());
+    }
+
+    public void testContentCache() throws Exception {
+        UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{jarFile.toURL()});
+        try {
+            assertEquals(0, resourceFinder.getContentCacheSize());
+            resourceFinder.setContentCacheSize(1024);
+            assertEquals(1024, resourceFinder.getContentCacheSize());
+            ResourceContentCache contentCache = resourceFinder.getContentCache();
+
+            // the first read fills the cache, and later reads through handles and urls are served from memory
+            assertEquals("resource3", toString(resourceFinder.getResource("resource").getInputStream()));
+            assertEquals(1, contentCache.getMisses());
+            assertEquals("resource3".length(), contentCache.getSize());
+            assertEquals("resource3", toString(resourceFinder.getResource("resource").getInputStream()));
+            assertEquals("resource3", toString(resourceFinder.findResource("resource").openStream()));
+            assertEquals("resource3", toString(((URL) resourceFinder.findResources("resource").nextElement()).openStream()));
+            assertEquals(3, contentCache.getHits());
+            assertEquals(1, contentCache.getMisses());
+
+            // a class path change clears the cache
+            resourceFinder.addUrl(alternateJarFile.toURL());
+            assertEquals(0, contentCache.getSize());
+        } finally {
+            resourceFinder.destroy();
+        }
+    }
+
+    public void testWatchedFile() throws Exception {
+        File watchedFile = new File(basedir, "target/watched.jar");
+        watchedFile.delete();
+        UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{watchedFile.toURL()});
+        try {
+            assertNull(resourceFinder.getResource("jar3"));
+
+            // the jar appears; an explicit check makes it visible to the next lookup
+            assertTrue(jarFile.renameTo(watchedFile));
+            resourceFinder.checkWatchedFiles();
+            assertEquals("jar3", new String(resourceFinder.getResource("jar3").getBytes()));
+        } finally {
+            resourceFinder.destroy();
+            watchedFile.delete();
+        }
+    }
+
+    public void testWatchedFileMonitor() throws Exception {
+        File watchedFile = new File(basedir, "target/monitored.jar");
+        watchedFile.delete();
+        UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{watchedFile.toURL()});
+        try {
+            assertNull(resourceFinder.getResource("jar3"));
+
+            // the jar appears; the background monitor notices it within a few check intervals
+            assertTrue(jarFile.renameTo(watchedFile));
+            ResourceHandle resource = null;
+            for (int i = 0; i < 50 && resource == null; i++) {
+                Thread.sleep(WatchedFileMonitor.CHECK_INTERVAL / 5);
+                resource = resourceFinder.getResource("jar3");
+            }
+            assertNotNull(resource);
+            assertEquals("jar3", new String(resource.getBytes()));
+        } finally {
+            resourceFinder.destroy();
+            watchedFile.delete();
+        }
+    }
+
+    public void testNestedJar() throws Exception {
+        File outerJarFile = new File(basedir, "target/outer.jar");
+        createOuterJar(outerJarFile);
+
+        URL codeSource = new URL("jar:" + outerJarFile.toURL() + "!/lib/inner.jar");
+        UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{codeSource});
+        try {
+            ResourceHandle resource = resourceFinder.getResource("resource");
+            assertNotNull(resource);
+            assertEquals("resource3", new String(resource.getBytes()));
+            assertEquals("resource3", toString(resource.getInputStream()));
+            assertEquals(codeSource, resource.getCodeSourceUrl());
+            assertEquals(manifest, resource.getManifest());
+
+            URL url = resourceFinder.findResource("jar3");
+            assertNotNull(url);
+            assertEquals("jar3", toString(url.openStream()));
+            assertNull(resourceFinder.getResource("missing"));
+        } finally {
+            resourceFinder.destroy();
+            outerJarFile.delete();
+        }
+
+        // only nested jars are supported, not the root or a directory of a jar
+        URL[] unsupportedUrls = new URL[] {
+                new URL("jar:" + jarFile.toURL() + "!/"),
+                new URL("jar:" + jarFile.toURL() + "!/META-INF/")
+        };
+        for (int i = 0; i < unsupportedUrls.length; i++) {
+            try {
+                new UrlResourceFinder(new URL[]{unsupportedUrls[i]}).getResource("resource");
+                fail("Expected an Error for " + unsupportedUrls[i]);
+            } catch (Error expected) {
+            }
+        }
+    }
+
+    public void testNestedJarMissingOuterJar() throws Exception {
+        File outerJarFile = new File(basedir, "target/missing-outer.jar");
+        outerJarFile.delete();
+        URL codeSource = new URL("jar:" + outerJarFile.toURL() + "!/lib/inner.jar");
+        UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{codeSource});
+        try {
+            assertNull(resourceFinder.getResource("jar3"));
+
+            // the finder still works, and can be extended
+            resourceFinder.addUrl(alternateJarFile.toURL());
+            assertNotNull(resourceFinder.getResource("resource"));
+
+            // the outer jar is watched; once it appears the inner jar is on the class path
+            createOuterJar(outerJarFile);
+            resourceFinder.checkWatchedFiles();
+            assertEquals("jar3", new String(resourceFinder.getResource("jar3").getBytes()));
+        } finally {
+            resourceFinder.destroy();
+            outerJarFile.delete();
+        }
+    }
+
+    public void testCorruptNestedJar() throws Exception {
+        File outerJarFile = new File(basedir, "target/corrupt-outer.jar");
+        createOuterJar(outerJarFile);
+        InputStream in = new FileInputStream(outerJarFile);
+        byte[] outerJar = IoUtil.getBytes(in);
+        IoUtil.close(in);
+        URL codeSource = new URL("jar:" + outerJarFile.toURL() + "!/lib/inner.jar");
+
+        try {
+            // truncated and overwritten jars either still work or fail with an IOException
+            for (int i = 0; i < outerJar.length; i++) {
+                writeFile(outerJarFile, outerJar, i);
+                readNestedJar(codeSource, outerJarFile);
+
+                byte[] corruptJar = (byte[]) outerJar.clone();
+                for (int j = i; j < i + 4 && j < corruptJar.length; j++) {
+                    corruptJar[j] = (byte) 0xFF;
+                }
+                writeFile(outerJarFile, corruptJar, corruptJar.length);
+                readNestedJar(codeSource, outerJarFile);
+            }
+        } finally {
+            outerJarFile.delete();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes, 0, length);
+        } finally {
+            IoUtil.close(out);
+        }
+    }
+
+    private static void readNestedJar(URL codeSource, File outerJarFile) {
+        NestedJarResourceLocation location;
+        try {
+            location = new NestedJarResourceLocation(codeSource, outerJarFile, "lib/inner.jar");
+        } catch (IOException expected) {
+            return;
+        }
+        try {
+            location.getManifest();
+            location.getPackageNames();
+            String[] names = new String[] {"resource", "jar3", "META-INF/MANIFEST.MF"};
+            for (int i = 0; i < names.length; i++) {
+                ResourceHandle handle = location.getResourceHandle(names[i]);
+                if (handle != null) {
+                    handle.getBytes();
+                }
+            }
+        } catch (IOException expected) {
+        } finally {
+            location.close();
+        }
+    }
+
+    /**
+     * Creates a jar holding the test jar as lib/inner.jar, stored without compression as required for in place access.
+     */
+    private void createOuterJar(File outerJarFile) throws IOException {
+        InputStream in = new FileInputStream(jarFile);
+        byte[] innerJar = IoUtil.getBytes(in);
+        IoUtil.close(in);
+        CRC32 crc = new CRC32();
+        crc.update(innerJar);
+
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(outerJarFile));
+        jarOutputStream.putNextEntry(new ZipEntry("lib/"));
+        ZipEntry innerEntry = new ZipEntry("lib/inner.jar");
+        innerEntry.setMethod(ZipEntry.STORED);
+        innerEntry.setSize(innerJar.length);
+        innerEntry.setCrc(crc.getValue());
+        jarOutputStream.putNextEntry(innerEntry);
+        jarOutputStream.write(innerJar);
+        IoUtil.close(jarOutputStream);
+    }
+
+    public void testUnindexedLocation() throws Exception {
+        // a location implemented outside this package only has the methods of ResourceLocation
+        final JarResourceLocation jar = new JarResourceLocation(jarFile.toURL(), new JarFile(jarFile));
+        ResourceLocation external = new ResourceLocation() {
+            public URL getCodeSource() {
+                return jar.getCodeSource();
+            }
+
+            public ResourceHandle getResourceHandle(String resourceName) {
+                return jar.getResourceHandle(resourceName);
+            }
+
+            public Manifest getManifest() throws IOException {
+                return jar.getManifest();
+            }
+
+            public void close() {
+                jar.close();
+            }
+        };
+        try {
+            // an unindexed location is searched for every resource
+            ResourceIndex index = new ResourceIndex(new ResourceLocation[]{external});
+            assertEquals(1, index.getLocations("resource").length);
+            assertEquals(1, index.getLocations("org/apache/Missing.class").length);
+
+            assertEquals("resource3", toString(UrlResourceFinder.getResourceUrl(external, "resource").openStream()));
+            assertNull(UrlResourceFinder.getResourceUrl(external, "missing"));
+        } finally {
+            external.close();
+        }
+    }
+
+    public void testPackageName() throws Exception {
+        assertEquals("", ResourceIndex.getPackageName(""));
+        assertEquals("", ResourceIndex.getPackageName("resource"));
+        assertEquals("", ResourceIndex.getPackageName("META-INF/"));
+        assertEquals("META-INF", ResourceIndex.getPackageName("META-INF/MANIFEST.MF"));
+        assertEquals("org/apache", ResourceIndex.getPackageName("org/apache/xbean/"));
+        assertEquals("org/apache/xbean", ResourceIndex.getPackageName("org/apache/xbean/Foo.class"));
+    }
+
     public void testDirectoryDestroy() throws Exception {
         URL jar = new File(basedir, "src/test-data/resourceFinderTest/jar1/").toURL();
         UrlResourceFinder resourceFinder = new UrlResourceFinder(new URL[]{jar});
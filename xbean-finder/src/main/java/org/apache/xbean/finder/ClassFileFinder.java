@@ -0,0 +1,343 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.finder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Finds classes by reading the class files of a class path directly, instead of relying on service files and loading
+ * every candidate.  No class is loaded or initialized, and the class loader is never locked, so the finder can answer
+ * "all implementations of X" and "all classes annotated with Y" for code that has not been loaded yet.
+ * <p/>
+ * The class path is scanned on the first query, with one task per jar or directory on an executor.  A class found in
+ * several entries is taken from the first one, as a class loader would.  Super types outside the scanned class path,
+ * such as the JDK interfaces, are read from the class loader as class file resources.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ClassFileFinder {
+    private final ClassLoader classLoader;
+    private final List<URL> urls;
+    private final ExecutorService executor;
+
+    // scanned classes in class path order
+    private Map<String, ClassFileInfo> classes;
+
+    // super types read from the class loader; null values are types which could not be read
+    private final Map<String, ClassFileInfo> externalClasses = new HashMap<String, ClassFileInfo>();
+
+    /**
+     * Creates a finder for the urls of a class loader.  The parents of the class loader are not scanned.
+     * @param classLoader the class loader
+     */
+    public ClassFileFinder(URLClassLoader classLoader) {
+        this(classLoader, Arrays.asList(classLoader.getURLs()));
+    }
+
+    /**
+     * Creates a finder for a class path.
+     * @param classLoader the class loader used to read the super types outside the class path
+     * @param urls the jars and directories to scan
+     */
+    public ClassFileFinder(ClassLoader classLoader, List<URL> urls) {
+        this(classLoader, urls, null);
+    }
+
+    /**
+     * Creates a finder for a class path which is scanned on the specified executor.
+     * @param classLoader the class loader used to read the super types outside the class path
+     * @param urls the jars and directories to scan
+     * @param executor the executor which runs the scan of each jar and directory, or null to use a temporary thread
+     * pool with one thread per processor
+     */
+    public ClassFileFinder(ClassLoader classLoader, List<URL> urls, ExecutorService executor) {
+        this.classLoader = classLoader;
+        this.urls = new ArrayList<URL>(urls);
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the names of all classes on the class path.
+     * @return the class names in class path order
+     * @throws IOException if the scan was interrupted
+     */
+    public List<String> getClassNames() throws IOException {
+        return new ArrayList<String>(getClasses().keySet());
+    }
+
+    /**
+     * Gets the class file information of a class on the class path, or of a class visible to the class loader.
+     * @param className the class name
+     * @return the class file information, or null if the class file can not be found
+     * @throws IOException if the scan was interrupted
+     */
+    public ClassFileInfo getClassInfo(String className) throws IOException {
+        ClassFileInfo classInfo = getClasses().get(className);
+        if (classInfo == null) {
+            classInfo = getExternalClass(className);
+        }
+        return classInfo;
+    }
+
+    public List<String> findImplementations(Class type) throws IOException {
+        return findImplementations(type.getName());
+    }
+
+    /**
+     * Finds the concrete classes on the class path which extend or implement a type, directly or indirectly.
+     * Interfaces and abstract classes are not included.
+     * @param typeName the name of the class or interface
+     * @return the class names in class path order
+     * @throws IOException if the scan was interrupted
+     */
+    public List<String> findImplementations(String typeName) throws IOException {
+        Map<String, Boolean> assignable = new HashMap<String, Boolean>();
+        assignable.put(typeName, Boolean.TRUE);
+
+        List<String> implementations = new ArrayList<String>();
+        for (ClassFileInfo classInfo : getClasses().values()) {
+            if (classInfo.isInterface() || classInfo.isAbstract() || classInfo.getName().equals(typeName)) {
+                continue;
+            }
+            if (isAssignable(classInfo.getName(), assignable)) {
+                implementations.add(classInfo.getName());
+            }
+        }
+        return implementations;
+    }
+
+    public List<String> findAnnotatedClasses(Class<? extends Annotation> annotation) throws IOException {
+        return findAnnotatedClasses(annotation.getName());
+    }
+
+    /**
+     * Finds the classes on the class path with an annotation.  Only annotations declared on the class itself are
+     * considered; annotations inherited from a super class are not.
+     * @param annotationName the name of the annotation type
+     * @return the class names in class path order
+     * @throws IOException if the scan was interrupted
+     */
+    public List<String> findAnnotatedClasses(String annotationName) throws IOException {
+        List<String> annotated = new ArrayList<String>();
+        for (ClassFileInfo classInfo : getClasses().values()) {
+            if (classInfo.getAnnotationNames().contains(annotationName)) {
+                annotated.add(classInfo.getName());
+            }
+        }
+        return annotated;
+    }
+
+    private boolean isAssignable(String className, Map<String, Boolean> assignable) throws IOException {
+        Boolean known = assignable.get(className);
+        if (known != null) {
+            return known;
+        }
+        // guards against circular class files
+        assignable.put(className, Boolean.FALSE);
+
+        boolean result = false;
+        ClassFileInfo classInfo = getClassInfo(className);
+        if (classInfo != null) {
+            String superClassName = classInfo.getSuperClassName();
+            result = superClassName != null && isAssignable(superClassName, assignable);
+            for (int i = 0; !result && i < classInfo.getInterfaceNames().size(); i++) {
+                result = isAssignable(classInfo.getInterfaceNames().get(i), assignable);
+            }
+        }
+        assignable.put(className, result);
+        return result;
+    }
+
+    private synchronized ClassFileInfo getExternalClass(String className) {
+        if (externalClasses.containsKey(className)) {
+            return externalClasses.get(className);
+        }
+
+        ClassFileInfo classInfo = null;
+        InputStream in = classLoader.getResourceAsStream(className.replace('.', '/') + ".class");
+        if (in != null) {
+            try {
+                classInfo = ClassFileReader.read(new BufferedInputStream(in));
+            } catch (IOException e) {
+                // unreadable class file; treated like a missing one
+            } finally {
+                close(in);
+            }
+        }
+        externalClasses.put(className, classInfo);
+        return classInfo;
+    }
+
+    private synchronized Map<String, ClassFileInfo> getClasses() throws IOException {
+        if (classes == null) {
+            classes = scan();
+        }
+        return classes;
+    }
+
+    private Map<String, ClassFileInfo> scan() throws IOException {
+        ExecutorService executor = this.executor;
+        boolean temporaryExecutor = false;
+        if (executor == null) {
+            int threads = Math.max(1, Math.min(urls.size(), Runtime.getRuntime().availableProcessors()));
+            executor = Executors.newFixedThreadPool(threads);
+            temporaryExecutor = true;
+        }
+
+        try {
+            List<Future<List<ClassFileInfo>>> futures = new ArrayList<Future<List<ClassFileInfo>>>(urls.size());
+            for (URL url : urls) {
+                futures.add(executor.submit(new ScanTask(url)));
+            }
+
+            // merge in class path order, so the result does not depend on which scan finished first
+            Map<String, ClassFileInfo> classes = new LinkedHashMap<String, ClassFileInfo>();
+            for (Future<List<ClassFileInfo>> future : futures) {
+                for (ClassFileInfo classInfo : future.get()) {
+                    if (!classes.containsKey(classInfo.getName())) {
+                        classes.put(classInfo.getName(), classInfo);
+                    }
+                }
+            }
+            return classes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new IOException("Interrupted while scanning the class path").initCause(e);
+        } catch (ExecutionException e) {
+            throw (IOException) new IOException("Class path scan failed").initCause(e.getCause());
+        } finally {
+            if (temporaryExecutor) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static void close(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Reads the class files of one jar or directory.  Unreadable jars and class files are skipped.
+     */
+    private static class ScanTask implements Callable<List<ClassFileInfo>> {
+        private final URL url;
+
+        private ScanTask(URL url) {
+            this.url = url;
+        }
+
+        public List<ClassFileInfo> call() {
+            List<ClassFileInfo> classes = new ArrayList<ClassFileInfo>();
+            if (!"file".equals(url.getProtocol())) {
+                // only local jars and directories can be scanned
+                return classes;
+            }
+
+            File file = new File(url.getPath());
+            if (file.isDirectory()) {
+                scanDirectory(file, classes);
+            } else if (file.isFile()) {
+                scanJar(file, classes);
+            }
+            return classes;
+        }
+
+        private void scanDirectory(File directory, List<ClassFileInfo> classes) {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    scanDirectory(file, classes);
+                } else if (isClassFile(file.getName())) {
+                    try {
+                        read(new FileInputStream(file), classes);
+                    } catch (IOException e) {
+                        // unreadable file
+                    }
+                }
+            }
+        }
+
+        private void scanJar(File file, List<ClassFileInfo> classes) {
+            JarFile jarFile;
+            try {
+                jarFile = new JarFile(file);
+            } catch (IOException e) {
+                // not a jar
+                return;
+            }
+            try {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (!entry.isDirectory() && isClassFile(entry.getName())) {
+                        try {
+                            read(jarFile.getInputStream(entry), classes);
+                        } catch (IOException e) {
+                            // unreadable entry
+                        }
+                    }
+                }
+            } finally {
+                try {
+                    jarFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void read(InputStream in, List<ClassFileInfo> classes) {
+            try {
+                classes.add(ClassFileReader.read(new BufferedInputStream(in)));
+            } catch (IOException e) {
+                // not a valid class file
+            } finally {
+                close(in);
+            }
+        }
+
+        private static boolean isClassFile(String name) {
+            return name.endsWith(".class") && !name.endsWith("module-info.class") && !name.endsWith("package-info.class");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.finder;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The type information read from a class file by a {@link ClassFileFinder}: the name, super class, interfaces and
+ * class level annotations.  The class itself is never loaded.  All names are fully qualified class names in the
+ * form returned by <code>Class.getName()</code>.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class ClassFileInfo {
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final int ACC_ANNOTATION = 0x2000;
+
+    private final String name;
+    private final String superClassName;
+    private final List<String> interfaceNames;
+    private final List<String> annotationNames;
+    private final int accessFlags;
+
+    ClassFileInfo(String name, String superClassName, List<String> interfaceNames, List<String> annotationNames, int accessFlags) {
+        this.name = name;
+        this.superClassName = superClassName;
+        this.interfaceNames = Collections.unmodifiableList(interfaceNames);
+        this.annotationNames = Collections.unmodifiableList(annotationNames);
+        this.accessFlags = accessFlags;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the name of the super class.
+     * @return the super class name, or null for java.lang.Object
+     */
+    public String getSuperClassName() {
+        return superClassName;
+    }
+
+    /**
+     * Gets the names of the interfaces directly implemented by the class, or directly extended by the interface.
+     * @return the interface names
+     */
+    public List<String> getInterfaceNames() {
+        return interfaceNames;
+    }
+
+    /**
+     * Gets the names of the annotations on the class.  Both runtime and class file retention annotations are included;
+     * inherited annotations are not.
+     * @return the annotation names
+     */
+    public List<String> getAnnotationNames() {
+        return annotationNames;
+    }
+
+    public boolean isInterface() {
+        return (accessFlags & ACC_INTERFACE) != 0;
+    }
+
+    public boolean isAbstract() {
+        return (accessFlags & ACC_ABSTRACT) != 0;
+    }
+
+    public boolean isAnnotation() {
+        return (accessFlags & ACC_ANNOTATION) != 0;
+    }
+
+    public String toString() {
+        return "[ClassFileInfo: " + name + "]";
+    }
+}
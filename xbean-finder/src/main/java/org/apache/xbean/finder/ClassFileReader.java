@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.finder;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal class file parser which reads only the parts of a class file needed by {@link ClassFileFinder}: the
+ * constant pool, the class names and the class level annotations.  Fields and methods are skipped.  Every constant
+ * pool reference is checked, so a malformed class file fails with an IOException.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ClassFileReader {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations";
+
+    private ClassFileReader() {
+    }
+
+    /**
+     * Reads a class file.
+     * @param in the class file; the stream is not closed
+     * @return the class information
+     * @throws IOException if the stream can not be read or is not a class file
+     */
+    static ClassFileInfo read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        // minor and major version
+        data.readUnsignedShort();
+        data.readUnsignedShort();
+
+        // the utf8 constants, and for each class constant the index of its name
+        int constantCount = data.readUnsignedShort();
+        String[] utf8 = new String[constantCount];
+        int[] classNameIndexes = new int[constantCount];
+        for (int i = 1; i < constantCount; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = data.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndexes[i] = data.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skipFully(data, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skipFully(data, 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skipFully(data, 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    // eight byte constants take two slots
+                    skipFully(data, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        int accessFlags = data.readUnsignedShort();
+        String name = getClassName(utf8, classNameIndexes, data.readUnsignedShort());
+        String superClassName = getClassName(utf8, classNameIndexes, data.readUnsignedShort());
+
+        int interfaceCount = data.readUnsignedShort();
+        List<String> interfaceNames = new ArrayList<String>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaceNames.add(getClassName(utf8, classNameIndexes, data.readUnsignedShort()));
+        }
+
+        // fields and methods have the same layout
+        for (int member = 0; member < 2; member++) {
+            int memberCount = data.readUnsignedShort();
+            for (int i = 0; i < memberCount; i++) {
+                skipFully(data, 6);
+                skipAttributes(data);
+            }
+        }
+
+        List<String> annotationNames = new ArrayList<String>();
+        int attributeCount = data.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = getUtf8(utf8, data.readUnsignedShort());
+            int length = readLength(data);
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(attributeName) || RUNTIME_INVISIBLE_ANNOTATIONS.equals(attributeName)) {
+                int annotationCount = data.readUnsignedShort();
+                for (int j = 0; j < annotationCount; j++) {
+                    annotationNames.add(readAnnotation(data, utf8));
+                }
+            } else {
+                skipFully(data, length);
+            }
+        }
+
+        return new ClassFileInfo(name, superClassName, interfaceNames, annotationNames, accessFlags);
+    }
+
+    private static String getClassName(String[] utf8, int[] classNameIndexes, int classIndex) throws IOException {
+        if (classIndex == 0) {
+            return null;
+        }
+        if (classIndex >= classNameIndexes.length || classNameIndexes[classIndex] == 0) {
+            throw new IOException("Invalid class constant " + classIndex);
+        }
+        return getUtf8(utf8, classNameIndexes[classIndex]).replace('/', '.');
+    }
+
+    private static String getUtf8(String[] utf8, int index) throws IOException {
+        if (index <= 0 || index >= utf8.length || utf8[index] == null) {
+            throw new IOException("Invalid utf8 constant " + index);
+        }
+        return utf8[index];
+    }
+
+    private static int readLength(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid attribute length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads an annotation and returns its type name.
+     */
+    private static String readAnnotation(DataInputStream data, String[] utf8) throws IOException {
+        String descriptor = getUtf8(utf8, data.readUnsignedShort());
+        if (descriptor.length() < 3 || descriptor.charAt(0) != 'L' || descriptor.charAt(descriptor.length() - 1) != ';') {
+            throw new IOException("Invalid annotation descriptor " + descriptor);
+        }
+        int pairCount = data.readUnsignedShort();
+        for (int i = 0; i < pairCount; i++) {
+            // element name
+            skipFully(data, 2);
+            skipElementValue(data, utf8);
+        }
+        // the descriptor has the form Lcom/acme/Annotation;
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    private static void skipElementValue(DataInputStream data, String[] utf8) throws IOException {
+        int tag = data.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                // enum type and constant name
+                skipFully(data, 4);
+                break;
+            case '@':
+                readAnnotation(data, utf8);
+                break;
+            case '[':
+                int valueCount = data.readUnsignedShort();
+                for (int i = 0; i < valueCount; i++) {
+                    skipElementValue(data, utf8);
+                }
+                break;
+            default:
+                // constant value or class
+                skipFully(data, 2);
+        }
+    }
+
+    private static void skipAttributes(DataInputStream data) throws IOException {
+        int attributeCount = data.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            skipFully(data, 2);
+            skipFully(data, readLength(data));
+        }
+    }
+
+    private static void skipFully(DataInputStream data, int length) throws IOException {
+        // skipBytes may skip less than requested on some streams
+        while (length > 0) {
+            int skipped = data.skipBytes(length);
+            if (skipped <= 0) {
+                data.readByte();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+}
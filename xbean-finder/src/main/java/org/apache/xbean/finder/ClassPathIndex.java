@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.finder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The names of all resources below a base directory, gathered in one pass over every jar and directory of a class
+ * loader that contains the base directory.  Only the names are indexed; the resources are read from their urls as
+ * usual.  The index answers directory listings only; single resources are still looked up with the class loader.
+ * <p/>
+ * Like {@link ResourceFinder#getResourcesMap}, the roots are found with <code>ClassLoader.getResources</code>, so a
+ * jar is only indexed if it contains an entry for the base directory itself.
+ * <p/>
+ * When the base directory is inside META-INF/ and a root carries a build time
+ * {@link ResourceFinder#DISCOVERY_INDEX}, the names are taken from that file and the entries of the root are not
+ * listed at all.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ClassPathIndex {
+    private final String basePath;
+
+    // relative directory name ("" for the base directory) -> file name -> url, later roots replacing earlier ones
+    private final Map<String, Map<String, URL>> directories = new HashMap<String, Map<String, URL>>();
+
+    /**
+     * Scans the class path of the class loader.
+     * @param classLoader the class loader to scan
+     * @param basePath the directory to index; everything after the last '/' is ignored
+     * @throws IOException if the roots of the class loader can not be listed
+     */
+    ClassPathIndex(ClassLoader classLoader, String basePath) throws IOException {
+        this.basePath = basePath.substring(0, basePath.lastIndexOf('/') + 1);
+
+        Enumeration<URL> roots = classLoader.getResources(this.basePath);
+        while (roots.hasMoreElements()) {
+            URL root = roots.nextElement();
+            try {
+                if (readDiscoveryIndex(root)) {
+                    continue;
+                }
+                if (root.getProtocol().equals("jar")) {
+                    indexJar(root);
+                } else if (root.getProtocol().equals("file")) {
+                    indexDirectory(root, new File(root.getPath()), "");
+                }
+            } catch (Exception e) {
+                // unreadable root; skipped, just like getResourcesMap does
+            }
+        }
+    }
+
+    /**
+     * Gets the files directly inside a directory, keyed by file name.
+     * @param directory the directory name, including the base path
+     * @return a new map of file name to url
+     */
+    Map<String, URL> getResourcesMap(String directory) {
+        String relativeName = getRelativeName(directory);
+        if (relativeName.endsWith("/")) {
+            relativeName = relativeName.substring(0, relativeName.length() - 1);
+        }
+        Map<String, URL> files = directories.get(relativeName);
+        if (files == null) {
+            return new HashMap<String, URL>();
+        }
+        return new HashMap<String, URL>(files);
+    }
+
+    private String getRelativeName(String name) {
+        if (!name.startsWith(basePath)) {
+            return name;
+        }
+        return name.substring(basePath.length());
+    }
+
+    /**
+     * Indexes a root from its build time discovery index, if it has one.
+     * @param root the url of the base directory in the root
+     * @return true if the root was indexed, false if it has no discovery index
+     * @throws IOException if the discovery index exists but can not be read
+     */
+    private boolean readDiscoveryIndex(URL root) throws IOException {
+        if (!basePath.startsWith("META-INF/")) {
+            return false;
+        }
+        String rootUrl = root.toExternalForm();
+        if (!rootUrl.endsWith(basePath)) {
+            return false;
+        }
+        URL indexUrl = new URL(rootUrl.substring(0, rootUrl.length() - basePath.length()) + ResourceFinder.DISCOVERY_INDEX);
+
+        InputStream in;
+        try {
+            in = indexUrl.openStream();
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String name;
+            while ((name = reader.readLine()) != null) {
+                name = name.trim();
+                if (name.startsWith("#") || !name.startsWith(basePath) || name.length() == basePath.length()) {
+                    continue;
+                }
+                String relativeName = name.substring(basePath.length());
+                add(relativeName, new URL(root, relativeName));
+            }
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return true;
+    }
+
+    private void indexJar(URL root) throws IOException {
+        JarURLConnection connection = (JarURLConnection) root.openConnection();
+        JarFile jarFile = connection.getJarFile();
+
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (entry.isDirectory() || !name.startsWith(basePath) || name.length() == basePath.length()) {
+                continue;
+            }
+            String relativeName = name.substring(basePath.length());
+            add(relativeName, new URL(root, relativeName));
+        }
+    }
+
+    private void indexDirectory(URL root, File directory, String relativePath) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String relativeName = relativePath + file.getName();
+            if (file.isDirectory()) {
+                indexDirectory(root, file, relativeName + "/");
+            } else {
+                add(relativeName, new URL(root, relativeName));
+            }
+        }
+    }
+
+    private void add(String relativeName, URL url) {
+        int slash = relativeName.lastIndexOf('/');
+        String directory = slash < 0 ? "" : relativeName.substring(0, slash);
+        Map<String, URL> files = directories.get(directory);
+        if (files == null) {
+            files = new HashMap<String, URL>();
+            directories.put(directory, files);
+        }
+        files.put(relativeName.substring(slash + 1), url);
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.finder;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Parsed contents of resources, shared by any number of {@link ResourceFinder}s.  Entries are keyed by the url of
+ * the resource and are validated against the modification time of the file that holds them: the jar for a
+ * <code>jar:file:</code> url, the file itself for a <code>file:</code> url.  Resources with any other kind of url
+ * are never cached.
+ * <p/>
+ * Cached properties are copied on the way in and out, so callers may modify what they get.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ResourceCache {
+
+    // url external form -> cached resource
+    private final Map<String, CachedResource> resources = new HashMap<String, CachedResource>();
+
+    /**
+     * Gets the cached contents of a resource, as returned by {@link ResourceFinder#findString}.
+     * @param url the url of the resource
+     * @return the contents, or null if they are not cached or the holding file changed since
+     */
+    public synchronized String getString(URL url) {
+        CachedResource resource = getValid(url);
+        return resource == null ? null : resource.string;
+    }
+
+    /**
+     * Caches the contents of a resource.  Does nothing if the url is not backed by a local file.
+     * @param url the url of the resource
+     * @param string the contents
+     */
+    public synchronized void putString(URL url, String string) {
+        CachedResource resource = getOrCreate(url);
+        if (resource != null) {
+            resource.string = string;
+        }
+    }
+
+    /**
+     * Gets a copy of the cached properties of a resource, as returned by {@link ResourceFinder#findProperties}.
+     * @param url the url of the resource
+     * @return a copy of the properties, or null if they are not cached or the holding file changed since
+     */
+    public synchronized Properties getProperties(URL url) {
+        CachedResource resource = getValid(url);
+        if (resource == null || resource.properties == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        properties.putAll(resource.properties);
+        return properties;
+    }
+
+    /**
+     * Caches a copy of the properties of a resource.  Does nothing if the url is not backed by a local file.
+     * @param url the url of the resource
+     * @param properties the properties
+     */
+    public synchronized void putProperties(URL url, Properties properties) {
+        CachedResource resource = getOrCreate(url);
+        if (resource != null) {
+            resource.properties = new Properties();
+            resource.properties.putAll(properties);
+        }
+    }
+
+    /**
+     * Gets the number of cached resources.
+     * @return the number of resources
+     */
+    public synchronized int size() {
+        return resources.size();
+    }
+
+    /**
+     * Discards all cached resources.
+     */
+    public synchronized void clear() {
+        resources.clear();
+    }
+
+    private CachedResource getValid(URL url) {
+        String key = url.toExternalForm();
+        CachedResource resource = resources.get(key);
+        if (resource == null) {
+            return null;
+        }
+        if (resource.lastModified != getLastModified(url)) {
+            resources.remove(key);
+            return null;
+        }
+        return resource;
+    }
+
+    private CachedResource getOrCreate(URL url) {
+        long lastModified = getLastModified(url);
+        if (lastModified <= 0) {
+            return null;
+        }
+        String key = url.toExternalForm();
+        CachedResource resource = resources.get(key);
+        if (resource == null || resource.lastModified != lastModified) {
+            resource = new CachedResource(lastModified);
+            resources.put(key, resource);
+        }
+        return resource;
+    }
+
+    /**
+     * Gets the modification time of the local file holding a resource.
+     * @return the modification time, or 0 if the resource is not in a local file
+     */
+    private static long getLastModified(URL url) {
+        try {
+            if (url.getProtocol().equals("jar")) {
+                String spec = url.getFile();
+                int separator = spec.indexOf("!/");
+                if (separator < 0) {
+                    return 0;
+                }
+                url = new URL(spec.substring(0, separator));
+            }
+            if (!url.getProtocol().equals("file")) {
+                return 0;
+            }
+            return new File(url.toURI()).lastModified();
+        } catch (URISyntaxException e) {
+            return 0;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        } catch (MalformedURLException e) {
+            return 0;
+        }
+    }
+
+    private static final class CachedResource {
+        private final long lastModified;
+        private String string;
+        private Properties properties;
+
+        private CachedResource(long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -17,34 +17,107 @@
 package org.apache.xbean.finder;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 public class ResourceFinder {
 
+    /**
+     * The build time index of a jar or directory, listing the names of the entries below META-INF/ one per line.
+     * An indexed finder reads this file instead of scanning the entries of a root that contains it, for directory
+     * listings only; lookups of single resources and the find* methods always go to the class loader.
+     * <p/>
+     * The index is trusted as it is.  It describes the root at the time it was written, so a jar that is
+     * repackaged afterwards, such as a shaded jar with merged service files, must not keep the index of the original
+     * classes; entries added by packaging are otherwise missing from the listings of an indexed finder.
+     */
+    public static final String DISCOVERY_INDEX = "META-INF/xbean-finder.index";
+
     private final String path;
     private final ClassLoader classLoader;
+    private final boolean indexed;
+    private final ResourceCache cache;
+    private ClassPathIndex index;
 
     public ResourceFinder(String path) {
         this(path, Thread.currentThread().getContextClassLoader());
     }
 
     public ResourceFinder(String path, ClassLoader classLoader) {
+        this(path, classLoader, false);
+    }
+
+    /**
+     * Creates a resource finder which optionally indexes the class path.  An indexed finder reads the entry names
+     * below <code>path</code> from every jar and directory once, on the first query, and answers all later
+     * directory listings ({@link #getResourcesMap} and the map* methods) from that index instead of rescanning the
+     * jars each time.  Lookups of single resources always go to the class loader, so they see every jar and honor
+     * the filtering of the class loader.  The index does not see resources added to the class path after it was
+     * built; call {@link #clearIndex()} to rebuild it.
+     * <p/>
+     * Roots carrying a {@link #DISCOVERY_INDEX}, such as jars built with the xbean discovery-index goal, are indexed
+     * from that file alone, without listing their entries.
+     * @param path the base path of the resources, such as "META-INF/"
+     * @param classLoader the class loader to search
+     * @param indexed true to index the class path
+     */
+    public ResourceFinder(String path, ClassLoader classLoader, boolean indexed) {
+        this(path, classLoader, indexed, null);
+    }
+
+    /**
+     * Creates a resource finder which keeps the strings and properties it reads in a cache.  Repeated lookups of
+     * the same resources are then answered from the cache for as long as the jar or file holding them is unchanged.
+     * The cache may be shared by several finders.
+     * @param path the base path of the resources, such as "META-INF/"
+     * @param classLoader the class loader to search
+     * @param indexed true to index the class path
+     * @param cache the cache of parsed resources, or null to always read the resources
+     */
+    public ResourceFinder(String path, ClassLoader classLoader, boolean indexed, ResourceCache cache) {
         this.path = path;
         this.classLoader = classLoader;
+        this.indexed = indexed;
+        this.cache = cache;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    public ResourceCache getResourceCache() {
+        return cache;
+    }
+
+    /**
+     * Discards the class path index, so the next query rebuilds it.  Does nothing if this finder is not indexed.
+     */
+    public synchronized void clearIndex() {
+        index = null;
     }
 
 
@@ -161,6 +234,20 @@ public class ResourceFinder {
         return classes;
     }
 
+    /**
+     * Like {@link #findAvailableClasses(String)}, but loads the classes concurrently on the executor.  The classes
+     * are returned in class path order and unavailable classes are skipped, just as when they are loaded one after
+     * another.  This only pays off if the class loader can load classes in parallel.
+     * @param key the resource name, relative to the path of this finder
+     * @param executor runs the class loading tasks
+     * @return the available classes
+     * @throws IOException if the resources can not be read, or the calling thread was interrupted while waiting
+     */
+    public List<Class> findAvailableClasses(String key, Executor executor) throws IOException {
+        List<String> strings = findAvailableStrings(key);
+        return loadAvailableClasses(strings, null, executor);
+    }
+
     public Map<String, Class> mapAllClasses(String key) throws IOException, ClassNotFoundException {
         Map<String, Class> classes = new HashMap<String, Class>();
         Map<String, String> map = mapAllStrings(key);
@@ -190,6 +277,44 @@ public class ResourceFinder {
         return classes;
     }
 
+    /**
+     * Like {@link #mapAvailableClasses(String)}, but loads the classes concurrently on the executor.
+     * @param key the directory of the resources, relative to the path of this finder
+     * @param executor runs the class loading tasks
+     * @return the available classes keyed by resource name
+     * @throws IOException if the resources can not be read, or the calling thread was interrupted while waiting
+     * @see #findAvailableClasses(String, Executor)
+     */
+    public Map<String, Class> mapAvailableClasses(String key, Executor executor) throws IOException {
+        Map<String, String> map = mapAvailableStrings(key);
+        return loadAvailableClasses(map, null, executor);
+    }
+
+    /**
+     * Like {@link #mapAvailableClasses}, but no class is read or loaded until its entry is asked for.  The map is
+     * keyed by the names of the resources found below <code>key</code>; <code>get</code> reads the resource and
+     * loads the class the first time, and returns null if that class is not available.  Iterating the entries or
+     * asking for the size resolves every class, leaving out the ones that are not available.
+     * @param key the directory of the resources, relative to the path of this finder
+     * @return an unmodifiable map of resource name to class
+     * @throws IOException if the resources can not be listed
+     */
+    public Map<String, Class> mapAvailableClassesLazily(String key) throws IOException {
+        return new LazyClassMap(getResourcesMap(key), null);
+    }
+
+    /**
+     * Iterates the classes named by every resource <code>key</code>, in class path order, reading each resource
+     * and loading its class only when the iterator gets to it.  Resources which can not be read and classes which
+     * can not be loaded are skipped, as in {@link #findAvailableClasses}.
+     * @param key the resource name, relative to the path of this finder
+     * @return an iterator of the available classes
+     * @throws IOException if the resources can not be listed
+     */
+    public Iterator<Class> iterateAvailableClasses(String key) throws IOException {
+        return new AvailableClassIterator(classLoader.getResources(path + key), null);
+    }
+
     // * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
     //
     //   Find Implementation
@@ -233,6 +358,19 @@ public class ResourceFinder {
         return implementations;
     }
 
+    /**
+     * Like {@link #findAvailableImplementations(Class)}, but loads the classes concurrently on the executor.
+     * @param interfase the interface whose implementations are looked up
+     * @param executor runs the class loading tasks
+     * @return the available implementations in class path order
+     * @throws IOException if the resources can not be read, or the calling thread was interrupted while waiting
+     * @see #findAvailableClasses(String, Executor)
+     */
+    public List<Class> findAvailableImplementations(Class interfase, Executor executor) throws IOException {
+        List<String> strings = findAvailableStrings(interfase.getName());
+        return loadAvailableClasses(strings, interfase, executor);
+    }
+
     public Map<String, Class> mapAllImplementations(Class interfase) throws IOException, ClassNotFoundException {
         Map<String, Class> implementations = new HashMap<String, Class>();
         Map<String, String> map = mapAllStrings(interfase.getName());
@@ -267,6 +405,43 @@ public class ResourceFinder {
         return implementations;
     }
 
+    /**
+     * Like {@link #mapAvailableImplementations(Class)}, but loads the classes concurrently on the executor.
+     * @param interfase the interface whose implementations are looked up
+     * @param executor runs the class loading tasks
+     * @return the available implementations keyed by resource name
+     * @throws IOException if the resources can not be read, or the calling thread was interrupted while waiting
+     * @see #findAvailableClasses(String, Executor)
+     */
+    public Map<String, Class> mapAvailableImplementations(Class interfase, Executor executor) throws IOException {
+        Map<String, String> map = mapAvailableStrings(interfase.getName());
+        return loadAvailableClasses(map, interfase, executor);
+    }
+
+
+    /**
+     * Like {@link #mapAvailableImplementations}, but no class is read or loaded until its entry is asked for.
+     * Classes which are not available or do not implement <code>interfase</code> resolve to null.
+     * @param interfase the interface whose implementations are looked up
+     * @return an unmodifiable map of resource name to implementation class
+     * @throws IOException if the resources can not be listed
+     * @see #mapAvailableClassesLazily
+     */
+    public Map<String, Class> mapAvailableImplementationsLazily(Class interfase) throws IOException {
+        return new LazyClassMap(getResourcesMap(interfase.getName()), interfase);
+    }
+
+    /**
+     * Iterates the implementations of <code>interfase</code>, in class path order, loading each class only when
+     * the iterator gets to it.  Classes which are not available or do not implement the interface are skipped.
+     * @param interfase the interface whose implementations are looked up
+     * @return an iterator of the available implementations
+     * @throws IOException if the resources can not be listed
+     * @see #iterateAvailableClasses
+     */
+    public Iterator<Class> iterateAvailableImplementations(Class interfase) throws IOException {
+        return new AvailableClassIterator(classLoader.getResources(path + interfase.getName()), interfase);
+    }
 
     // * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
     //
@@ -354,6 +529,10 @@ public class ResourceFinder {
     public Map<String, URL> getResourcesMap(String key) throws IOException {
         String basePath = path + key;
 
+        if (indexed) {
+            return getIndex().getResourcesMap(basePath);
+        }
+
         Map<String, URL> resources = new HashMap<String, URL>();
         if (!basePath.endsWith("/")){
             basePath += "/";
@@ -418,7 +597,21 @@ public class ResourceFinder {
         }
     }
 
+    private synchronized ClassPathIndex getIndex() throws IOException {
+        if (index == null) {
+            index = new ClassPathIndex(classLoader, path);
+        }
+        return index;
+    }
+
     private Properties loadProperties(URL resource) throws IOException {
+        if (cache != null) {
+            Properties properties = cache.getProperties(resource);
+            if (properties != null) {
+                return properties;
+            }
+        }
+
         InputStream in = resource.openStream();
 
         BufferedInputStream reader = null;
@@ -427,6 +620,9 @@ public class ResourceFinder {
             Properties properties = new Properties();
             properties.load(reader);
 
+            if (cache != null) {
+                cache.putProperties(resource, properties);
+            }
             return properties;
         } finally {
             try {
@@ -438,24 +634,31 @@ public class ResourceFinder {
     }
 
     private String readContents(URL resource) throws IOException {
-        InputStream in = resource.openStream();
-        BufferedInputStream reader = null;
-        StringBuffer sb = new StringBuffer();
+        if (cache != null) {
+            String string = cache.getString(resource);
+            if (string != null) {
+                return string;
+            }
+        }
 
+        InputStream in = resource.openStream();
         try {
-            reader = new BufferedInputStream(in);
-
-            int b = reader.read();
-            while (b != -1) {
-                sb.append((char) b);
-                b = reader.read();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
             }
 
-            return sb.toString().trim();
+            // one char per byte, as the contents have always been read
+            String string = new String(out.toByteArray(), "ISO-8859-1").trim();
+            if (cache != null) {
+                cache.putString(resource, string);
+            }
+            return string;
         } finally {
             try {
                 in.close();
-                reader.close();
             } catch (Exception e) {
             }
         }
@@ -466,4 +669,182 @@ public class ResourceFinder {
         return Thread.currentThread().getContextClassLoader().getResources(path);
     }
 
+    /**
+     * Loads the class named by a resource, or returns null if it is not available or not of the required type.
+     */
+    private Class loadAvailableClass(URL resource, Class<?> type) {
+        try {
+            return loadAvailableClass(readContents(resource), type);
+        } catch (Exception notAvailable) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads a class, or returns null if it is not available or not of the required type.
+     */
+    private Class loadAvailableClass(String className, Class<?> type) {
+        try {
+            Class<?> clazz = classLoader.loadClass(className);
+            if (type != null && !type.isAssignableFrom(clazz)) {
+                return null;
+            }
+            return clazz;
+        } catch (Exception notAvailable) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads the named classes on the executor, returning the available ones in the order of the names.
+     */
+    private List<Class> loadAvailableClasses(List<String> classNames, Class<?> type, Executor executor) throws IOException {
+        List<Future<Class>> futures = submitLoads(classNames, type, executor);
+
+        List<Class> classes = new ArrayList<Class>(classNames.size());
+        for (Future<Class> future : futures) {
+            Class clazz = getLoadedClass(future);
+            if (clazz != null) {
+                classes.add(clazz);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Loads the classes named by the map values on the executor, returning the available ones under their keys.
+     */
+    private Map<String, Class> loadAvailableClasses(Map<String, String> classNames, Class<?> type, Executor executor) throws IOException {
+        List<String> keys = new ArrayList<String>(classNames.size());
+        List<String> names = new ArrayList<String>(classNames.size());
+        for (Map.Entry<String, String> entry : classNames.entrySet()) {
+            keys.add(entry.getKey());
+            names.add(entry.getValue());
+        }
+
+        List<Future<Class>> futures = submitLoads(names, type, executor);
+
+        Map<String, Class> classes = new HashMap<String, Class>();
+        for (int i = 0; i < futures.size(); i++) {
+            Class clazz = getLoadedClass(futures.get(i));
+            if (clazz != null) {
+                classes.put(keys.get(i), clazz);
+            }
+        }
+        return classes;
+    }
+
+    private List<Future<Class>> submitLoads(List<String> classNames, final Class<?> type, Executor executor) {
+        List<Future<Class>> futures = new ArrayList<Future<Class>>(classNames.size());
+        for (final String className : classNames) {
+            FutureTask<Class> task = new FutureTask<Class>(new Callable<Class>() {
+                public Class call() {
+                    return loadAvailableClass(className, type);
+                }
+            });
+            executor.execute(task);
+            futures.add(task);
+        }
+        return futures;
+    }
+
+    private static Class getLoadedClass(Future<Class> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading classes");
+        } catch (ExecutionException e) {
+            // only errors get here; unavailable classes are already null
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    private static final Object NOT_AVAILABLE = new Object();
+
+    /**
+     * Resource name to class map that loads each class on first access.
+     */
+    private class LazyClassMap extends AbstractMap<String, Class> {
+        private final Map<String, URL> resources;
+        private final Class type;
+
+        // resource name -> loaded class, or NOT_AVAILABLE
+        private final Map<String, Object> resolved = new HashMap<String, Object>();
+
+        private LazyClassMap(Map<String, URL> resources, Class type) {
+            this.resources = resources;
+            this.type = type;
+        }
+
+        public synchronized Class get(Object name) {
+            Object value = resolved.get(name);
+            if (value == null) {
+                URL resource = resources.get(name);
+                if (resource == null) {
+                    return null;
+                }
+                value = loadAvailableClass(resource, type);
+                if (value == null) {
+                    value = NOT_AVAILABLE;
+                }
+                resolved.put((String) name, value);
+            }
+            return value == NOT_AVAILABLE ? null : (Class) value;
+        }
+
+        public boolean containsKey(Object name) {
+            return get(name) != null;
+        }
+
+        public synchronized Set<Map.Entry<String, Class>> entrySet() {
+            Map<String, Class> classes = new HashMap<String, Class>();
+            for (String name : resources.keySet()) {
+                Class clazz = get(name);
+                if (clazz != null) {
+                    classes.put(name, clazz);
+                }
+            }
+            return Collections.unmodifiableMap(classes).entrySet();
+        }
+    }
+
+    /**
+     * Walks the urls of a resource, loading the class named by each one as it is reached.
+     */
+    private class AvailableClassIterator implements Iterator<Class> {
+        private final Enumeration<URL> resources;
+        private final Class type;
+        private Class next;
+
+        private AvailableClassIterator(Enumeration<URL> resources, Class type) {
+            this.resources = resources;
+            this.type = type;
+        }
+
+        public boolean hasNext() {
+            while (next == null && resources.hasMoreElements()) {
+                next = loadAvailableClass(resources.nextElement(), type);
+            }
+            return next != null;
+        }
+
+        public Class next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Class clazz = next;
+            next = null;
+            return clazz;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
 }
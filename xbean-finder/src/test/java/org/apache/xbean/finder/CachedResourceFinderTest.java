@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.finder;
+/**
+ * Runs the ResourceFinder tests against a finder which caches the resources it reads.
+ *
+ * @version $Revision$ $Date$
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+
+public class CachedResourceFinderTest extends ResourceFinderTest {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        resourceFinder = new ResourceFinder("META-INF/", Thread.currentThread().getContextClassLoader(), false, new ResourceCache());
+    }
+
+    public void testCacheInvalidation() throws Exception {
+        File directory = File.createTempFile("xbean-finder-cache", "");
+        directory.delete();
+        directory.mkdirs();
+        directory.deleteOnExit();
+        File service = new File(directory, "META-INF/service");
+        File properties = new File(directory, "META-INF/service.properties");
+        write(service, "org.acme.One");
+        write(properties, "name=one");
+
+        ResourceCache cache = new ResourceCache();
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{directory.toURL()}, null);
+        ResourceFinder finder = new ResourceFinder("META-INF/", classLoader, false, cache);
+
+        assertEquals("org.acme.One", finder.findString("service"));
+        assertEquals("one", finder.findProperties("service.properties").getProperty("name"));
+        assertEquals(2, cache.size());
+
+        // modifying a returned copy does not change the cache
+        Properties copy = finder.findProperties("service.properties");
+        copy.setProperty("name", "changed");
+        assertEquals("one", finder.findProperties("service.properties").getProperty("name"));
+
+        // unchanged files are answered from the cache, even if their contents are gone
+        long lastModified = service.lastModified();
+        write(service, "org.acme.Two");
+        service.setLastModified(lastModified);
+        assertEquals("org.acme.One", finder.findString("service"));
+
+        // a new modification time invalidates the entry
+        service.setLastModified(lastModified + 10000);
+        assertEquals("org.acme.Two", finder.findString("service"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    private void write(File file, String contents) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        file.deleteOnExit();
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.finder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import org.acme.One;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class ClassFileFinderTest extends TestCase {
+    private URL classesUrl;
+    private ClassFileFinder classFileFinder;
+
+    public void testFindImplementations() throws Exception {
+        List<String> externalizables = classFileFinder.findImplementations(Externalizable.class);
+        assertTrue(externalizables.contains("org.acme.One"));
+        assertTrue(externalizables.contains("org.acme.Two"));
+        assertFalse(externalizables.contains("org.acme.Three"));
+
+        // Serializable is only implemented through Externalizable, which is read from the class loader
+        List<String> serializables = classFileFinder.findImplementations(Serializable.class);
+        assertTrue(serializables.contains("org.acme.One"));
+        assertFalse(serializables.contains("org.acme.Three"));
+
+        // indirect super classes
+        List<String> handlers = classFileFinder.findImplementations(URLStreamHandler.class);
+        assertTrue(handlers.contains("org.acme.FooUrlHandler"));
+        assertTrue(handlers.contains("org.acme.BarUrlHandler"));
+        assertTrue(classFileFinder.findImplementations("org.acme.Three").contains("org.acme.Four"));
+    }
+
+    public void testFindAnnotatedClasses() throws Exception {
+        List<String> deprecated = classFileFinder.findAnnotatedClasses(Deprecated.class);
+        assertEquals(Collections.singletonList("org.acme.Four"), deprecated);
+    }
+
+    public void testClassInfo() throws Exception {
+        ClassFileInfo classInfo = classFileFinder.getClassInfo("org.acme.Four");
+        assertEquals("org.acme.Four", classInfo.getName());
+        assertEquals("org.acme.Three", classInfo.getSuperClassName());
+        assertTrue(classInfo.getInterfaceNames().isEmpty());
+        assertFalse(classInfo.isInterface());
+
+        classInfo = classFileFinder.getClassInfo("java.io.Externalizable");
+        assertTrue(classInfo.isInterface());
+        assertEquals(Collections.singletonList("java.io.Serializable"), classInfo.getInterfaceNames());
+        assertNull(classFileFinder.getClassInfo("org.acme.Missing"));
+    }
+
+    public void testNoClassesLoaded() throws Exception {
+        TrackingClassLoader classLoader = new TrackingClassLoader(new URL[]{classesUrl});
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ClassFileFinder classFileFinder = new ClassFileFinder(classLoader, Collections.singletonList(classesUrl), executor);
+            assertTrue(classFileFinder.findImplementations(Externalizable.class).contains("org.acme.One"));
+            assertTrue(classFileFinder.getClassNames().contains("org.acme.Two"));
+            assertFalse(classLoader.isLoaded("org.acme.One"));
+            assertFalse(classLoader.isLoaded("org.acme.Two"));
+
+            // the caller's executor is not shut down
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testMalformedClassFiles() throws Exception {
+        File directory = File.createTempFile("xbean-finder-malformed", "");
+        directory.delete();
+        directory.mkdirs();
+        try {
+            // the class name index is past the end of the constant pool
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = startClassFile(bytes, 2);
+            out.writeByte(1);
+            out.writeUTF("bad/Bad1");
+            endClassFile(out, 5, 0);
+            byte[] badClassIndex = bytes.toByteArray();
+
+            // the class constant refers to itself instead of a utf8 constant
+            bytes = new ByteArrayOutputStream();
+            out = startClassFile(bytes, 2);
+            out.writeByte(7);
+            out.writeShort(1);
+            endClassFile(out, 1, 0);
+            byte[] badClassName = bytes.toByteArray();
+
+            // an annotation descriptor that is not a class type
+            bytes = new ByteArrayOutputStream();
+            out = startClassFile(bytes, 5);
+            out.writeByte(1);
+            out.writeUTF("bad/Bad3");
+            out.writeByte(7);
+            out.writeShort(1);
+            out.writeByte(1);
+            out.writeUTF("RuntimeVisibleAnnotations");
+            out.writeByte(1);
+            out.writeUTF("X");
+            endClassFile(out, 2, 1);
+            out.writeShort(3);
+            out.writeInt(6);
+            out.writeShort(1);
+            out.writeShort(4);
+            out.writeShort(0);
+            byte[] badDescriptor = bytes.toByteArray();
+
+            // an attribute name index past the end of the constant pool
+            bytes = new ByteArrayOutputStream();
+            out = startClassFile(bytes, 3);
+            out.writeByte(1);
+            out.writeUTF("bad/Bad4");
+            out.writeByte(7);
+            out.writeShort(1);
+            endClassFile(out, 2, 1);
+            out.writeShort(9);
+            out.writeInt(0);
+            byte[] badAttributeName = bytes.toByteArray();
+
+            byte[][] classFiles = new byte[][] {badClassIndex, badClassName, badDescriptor, badAttributeName};
+            for (int i = 0; i < classFiles.length; i++) {
+                try {
+                    ClassFileReader.read(new ByteArrayInputStream(classFiles[i]));
+                    fail("Expected an IOException for class file " + (i + 1));
+                } catch (IOException expected) {
+                }
+                write(new File(directory, "bad/Bad" + (i + 1) + ".class"), classFiles[i]);
+            }
+
+            // the malformed class files are skipped, and the rest of the class path is still scanned
+            List<URL> urls = new ArrayList<URL>();
+            urls.add(directory.toURL());
+            urls.add(classesUrl);
+            ClassFileFinder classFileFinder = new ClassFileFinder(getClass().getClassLoader(), urls);
+            assertTrue(classFileFinder.findImplementations(Externalizable.class).contains("org.acme.One"));
+            assertNull(classFileFinder.getClassInfo("bad.Bad3"));
+        } finally {
+            for (int i = 1; i <= 4; i++) {
+                new File(directory, "bad/Bad" + i + ".class").delete();
+            }
+            new File(directory, "bad").delete();
+            directory.delete();
+        }
+    }
+
+    private static DataOutputStream startClassFile(ByteArrayOutputStream bytes, int constantCount) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        out.writeShort(constantCount);
+        return out;
+    }
+
+    private static void endClassFile(DataOutputStream out, int classIndex, int attributeCount) throws IOException {
+        // access flags, this class, super class, interfaces, fields, methods
+        out.writeShort(0x21);
+        out.writeShort(classIndex);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(attributeCount);
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        // the root of the test classes directory
+        File classFile = new File(One.class.getResource("One.class").getPath());
+        classesUrl = classFile.getParentFile().getParentFile().getParentFile().toURL();
+        classFileFinder = new ClassFileFinder(getClass().getClassLoader(), Collections.singletonList(classesUrl));
+    }
+
+    private static class TrackingClassLoader extends URLClassLoader {
+        private TrackingClassLoader(URL[] urls) {
+            super(urls, null);
+        }
+
+        private boolean isLoaded(String className) {
+            return findLoadedClass(className) != null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.xbean.finder;
+/**
+ * Runs the ResourceFinder tests against a finder which answers from a class path index.
+ *
+ * @version $Revision$ $Date$
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+public class IndexedResourceFinderTest extends ResourceFinderTest {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        resourceFinder = new ResourceFinder("META-INF/", Thread.currentThread().getContextClassLoader(), true);
+    }
+
+    public void testClearIndex() throws Exception {
+        assertTrue(resourceFinder.isIndexed());
+
+        Map<String, String> before = resourceFinder.mapAvailableStrings("serializables");
+        resourceFinder.clearIndex();
+        Map<String, String> after = resourceFinder.mapAvailableStrings("serializables");
+        assertEquals(before, after);
+    }
+
+    public void testDiscoveryIndex() throws Exception {
+        File indexed = createDirectory("indexed");
+        write(indexed, "META-INF/plugins/listed", "listed");
+        write(indexed, "META-INF/plugins/unlisted", "unlisted");
+        write(indexed, ResourceFinder.DISCOVERY_INDEX, "# test\nMETA-INF/plugins/listed\n");
+
+        File scanned = createDirectory("scanned");
+        write(scanned, "META-INF/plugins/other", "other");
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{indexed.toURL(), scanned.toURL()}, null);
+        ResourceFinder finder = new ResourceFinder("META-INF/", classLoader, true);
+
+        // the indexed root only exposes what its index lists; the other root is still scanned
+        Map<String, URL> plugins = finder.getResourcesMap("plugins");
+        assertEquals(2, plugins.size());
+        assertTrue(plugins.containsKey("listed"));
+        assertTrue(plugins.containsKey("other"));
+
+        assertEquals("listed", finder.findString("plugins/listed"));
+        assertEquals("other", finder.findString("plugins/other"));
+    }
+
+    public void testJarWithoutDirectoryEntries() throws Exception {
+        File jar = File.createTempFile("xbean-finder-nodirs", ".jar");
+        jar.deleteOnExit();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry("META-INF/plugins/flat"));
+            out.write("flat".getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toURL()}, null);
+        ResourceFinder finder = new ResourceFinder("META-INF/", classLoader, true);
+
+        // the jar has no META-INF/ entry, so it is not indexed, but single lookups still find its resources
+        assertEquals("flat", finder.findString("plugins/flat"));
+        List<String> strings = finder.findAllStrings("plugins/flat");
+        assertEquals(1, strings.size());
+        assertEquals("flat", strings.get(0));
+        assertEquals("flat", finder.findAvailableStrings("plugins/flat").get(0));
+    }
+
+    private File createDirectory(String name) throws IOException {
+        File directory = File.createTempFile("xbean-finder-" + name, "");
+        directory.delete();
+        directory.mkdirs();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private void write(File root, String name, String contents) throws IOException {
+        File file = new File(root, name);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -30,10 +30,13 @@ import org.acme.kernelURLContextFactory;
 import org.acme.ldapURLContextFactory;
 
 import java.net.URL;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ResourceFinderTest extends TestCase {
     ResourceFinder resourceFinder = new ResourceFinder("META-INF/");
@@ -211,6 +214,48 @@ public class ResourceFinderTest extends TestCase {
         assertEquals(Two.class, resourcesMap.get("two"));
     }
 
+    public void testLoadAvailableClassesConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Class> classes = resourceFinder.findAvailableClasses("java.io.Serializable", executor);
+            assertEquals(resourceFinder.findAvailableClasses("java.io.Serializable"), classes);
+
+            Map<String, Class> resourcesMap = resourceFinder.mapAvailableClasses("externalizables", executor);
+            assertEquals(resourceFinder.mapAvailableClasses("externalizables"), resourcesMap);
+
+            classes = resourceFinder.findAvailableImplementations(java.io.Serializable.class, executor);
+            assertEquals(resourceFinder.findAvailableImplementations(java.io.Serializable.class), classes);
+
+            resourcesMap = resourceFinder.mapAvailableImplementations(java.net.URLStreamHandler.class, executor);
+            assertEquals(resourceFinder.mapAvailableImplementations(java.net.URLStreamHandler.class), resourcesMap);
+            assertEquals("map size", 2, resourcesMap.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testMapAvailableClassesLazily() throws Exception {
+        Map<String, Class> resourcesMap = resourceFinder.mapAvailableClassesLazily("externalizables");
+
+        assertEquals(One.class, resourcesMap.get("one"));
+        assertNull("missing class", resourcesMap.get("three"));
+        assertFalse("map contains key 'three'", resourcesMap.containsKey("three"));
+        assertNull("unknown resource", resourcesMap.get("four"));
+
+        assertEquals("map size", 2, resourcesMap.size());
+        assertEquals(Two.class, resourcesMap.get("two"));
+    }
+
+    public void testIterateAvailableClasses() throws Exception {
+        Iterator<Class> classes = resourceFinder.iterateAvailableClasses("java.io.Serializable");
+        assertTrue(classes.hasNext());
+        assertEquals(One.class, classes.next());
+        assertFalse(classes.hasNext());
+
+        classes = resourceFinder.iterateAvailableClasses("java.io.OutputStream");
+        assertFalse(classes.hasNext());
+    }
+
     // * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
     //
     //   Find Implementation
@@ -279,6 +324,24 @@ public class ResourceFinderTest extends TestCase {
         assertEquals(FooUrlHandler.class, resourcesMap.get("foo"));
     }
 
+    public void testMapAvailableImplementationsLazily() throws Exception {
+        Map<String, Class> resourcesMap = resourceFinder.mapAvailableImplementationsLazily(java.net.URLStreamHandler.class);
+
+        assertEquals(FooUrlHandler.class, resourcesMap.get("foo"));
+        assertEquals("map size", 2, resourcesMap.size());
+        assertEquals(BarUrlHandler.class, resourcesMap.get("bar"));
+    }
+
+    public void testIterateAvailableImplementations() throws Exception {
+        Iterator<Class> classes = resourceFinder.iterateAvailableImplementations(java.io.Serializable.class);
+        assertTrue(classes.hasNext());
+        assertEquals(One.class, classes.next());
+        assertFalse(classes.hasNext());
+
+        classes = resourceFinder.iterateAvailableImplementations(java.io.InputStream.class);
+        assertFalse(classes.hasNext());
+    }
+
     // * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
     //
     //   Find Properties